@@ -19,6 +19,7 @@ import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
 import ens.edupath.auth.filter.JwtAuthenticationFilter;
+import ens.edupath.auth.filter.ServiceKeyAuthenticationFilter;
 import ens.edupath.auth.config.CustomUserDetailsService;
 
 import java.util.Arrays;
@@ -30,10 +31,13 @@ public class SecurityConfig {
 
     private final CustomUserDetailsService userDetailsService;
     private final JwtAuthenticationFilter jwtAuthenticationFilter;
+    private final ServiceKeyAuthenticationFilter serviceKeyAuthenticationFilter;
 
-    public SecurityConfig(CustomUserDetailsService userDetailsService, JwtAuthenticationFilter jwtAuthenticationFilter) {
+    public SecurityConfig(CustomUserDetailsService userDetailsService, JwtAuthenticationFilter jwtAuthenticationFilter,
+                          ServiceKeyAuthenticationFilter serviceKeyAuthenticationFilter) {
         this.userDetailsService = userDetailsService;
         this.jwtAuthenticationFilter = jwtAuthenticationFilter;
+        this.serviceKeyAuthenticationFilter = serviceKeyAuthenticationFilter;
     }
 
     @Bean
@@ -63,6 +67,8 @@ public class SecurityConfig {
                 .requestMatchers("/api/auth/register", "/api/auth/login", "/api/auth/verify",
                         "/api/auth/forgot-password", "/api/auth/reset-password", "/api/auth/validate").permitAll()
                 .requestMatchers("/actuator/**").permitAll()
+                // Création des comptes par data-ingestion-service, authentifié par sa clé de service
+                .requestMatchers("/api/auth/admin/users/bulk").hasAnyRole("ADMIN", "SERVICE")
                 .requestMatchers("/api/auth/admin/**").hasRole("ADMIN")
                 .anyRequest().authenticated()
             )
@@ -70,7 +76,8 @@ public class SecurityConfig {
                 .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
             )
             .authenticationProvider(authenticationProvider())
-            .addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class);
+            .addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class)
+            .addFilterBefore(serviceKeyAuthenticationFilter, UsernamePasswordAuthenticationFilter.class);
 
         return http.build();
     }
@@ -1,9 +1,12 @@
 package ens.edupath.auth.controller;
 
+import ens.edupath.auth.dto.BulkCreateUsersRequest;
+import ens.edupath.auth.dto.BulkCreateUsersResponse;
 import ens.edupath.auth.dto.CreateUserRequest;
 import ens.edupath.auth.dto.UserImportResponse;
 import ens.edupath.auth.dto.UserResponse;
 import ens.edupath.auth.entity.User;
+import ens.edupath.auth.service.BulkUserService;
 import ens.edupath.auth.service.UserService;
 import ens.edupath.auth.service.UserImportExportService;
 import jakarta.validation.Valid;
@@ -30,10 +33,13 @@ public class AdminController {
 
     private final UserService userService;
     private final UserImportExportService userImportExportService;
+    private final BulkUserService bulkUserService;
 
-    public AdminController(UserService userService, UserImportExportService userImportExportService) {
+    public AdminController(UserService userService, UserImportExportService userImportExportService,
+                           BulkUserService bulkUserService) {
         this.userService = userService;
         this.userImportExportService = userImportExportService;
+        this.bulkUserService = bulkUserService;
     }
 
     @PostMapping("/create-user")
@@ -69,6 +75,20 @@ public class AdminController {
         }
     }
 
+    // Création en masse (data-ingestion-service) : quelques milliers d'utilisateurs par appel
+    @PostMapping("/users/bulk")
+    @PreAuthorize("hasAnyRole('ADMIN', 'SERVICE')")
+    public ResponseEntity<?> createUsers(@Valid @RequestBody BulkCreateUsersRequest request) {
+        try {
+            BulkCreateUsersResponse response = bulkUserService.createUsers(request);
+            System.out.println("Création en masse: " + response.getCreated() + " créés, "
+                    + response.getExisting() + " existants, " + response.getFailed() + " en erreur");
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage()));
+        }
+    }
+
     @GetMapping("/users")
     public ResponseEntity<List<UserResponse>> getAllUsers() {
         List<UserResponse> users = userService.getAllUsers().stream()
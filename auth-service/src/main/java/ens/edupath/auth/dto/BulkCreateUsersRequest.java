@@ -0,0 +1,16 @@
+package ens.edupath.auth.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BulkCreateUsersRequest {
+    // Validés un par un : un utilisateur invalide n'empêche pas la création des autres.
+    // Sans mot de passe, un mot de passe temporaire est généré.
+    @NotEmpty(message = "La liste des utilisateurs est requise")
+    private List<CreateUserRequest> users;
+
+    private boolean sendWelcomeEmail = true; // Envoyés en arrière-plan après l'enregistrement
+}
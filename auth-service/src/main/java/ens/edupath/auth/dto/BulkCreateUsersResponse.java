@@ -0,0 +1,28 @@
+package ens.edupath.auth.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkCreateUsersResponse {
+    private int received;
+    private int created;
+    private int existing; // Nom d'utilisateur ou email déjà enregistré : ignorés, pas en erreur
+    private int failed;
+    private List<UserError> errors = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class UserError {
+        private int index; // Position dans la requête
+        private String username;
+        private String message;
+    }
+}
@@ -15,6 +15,7 @@ public class CreateUserRequest {
 
     @NotBlank(message = "L'email est requis")
     @Email(message = "L'email doit être valide")
+    @Size(max = 100, message = "L'email ne doit pas dépasser 100 caractères")
     private String email;
 
     @NotBlank(message = "Le mot de passe est requis")
@@ -0,0 +1,51 @@
+package ens.edupath.auth.filter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Authentifie les appels entre services (data-ingestion-service) par une clé partagée dans
+ * l'en-tête X-Service-Key, sans expiration contrairement aux JWT des utilisateurs.
+ * La requête reçoit le seul rôle ROLE_SERVICE ; sans clé configurée, le filtre est inactif.
+ */
+@Component
+public class ServiceKeyAuthenticationFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-Service-Key";
+
+    private final byte[] serviceKey;
+
+    public ServiceKeyAuthenticationFilter(@Value("${services.internal-key:}") String serviceKey) {
+        this.serviceKey = serviceKey.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected void doFilterInternal(
+            @NonNull HttpServletRequest request,
+            @NonNull HttpServletResponse response,
+            @NonNull FilterChain filterChain
+    ) throws ServletException, IOException {
+        String key = request.getHeader(HEADER);
+        if (serviceKey.length > 0 && key != null
+                && MessageDigest.isEqual(serviceKey, key.getBytes(StandardCharsets.UTF_8))
+                && SecurityContextHolder.getContext().getAuthentication() == null) {
+            SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                    "service", null, List.of(new SimpleGrantedAuthority("ROLE_SERVICE"))));
+        }
+        filterChain.doFilter(request, response);
+    }
+}
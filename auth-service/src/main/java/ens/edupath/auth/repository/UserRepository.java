@@ -2,8 +2,12 @@ package ens.edupath.auth.repository;
 
 import ens.edupath.auth.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -12,6 +16,11 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
     boolean existsByUsername(String username);
     boolean existsByEmail(String email);
+
+    // Couples [username, email] déjà enregistrés, sans charger les utilisateurs et leurs rôles
+    @Query("SELECT u.username, u.email FROM User u WHERE u.username IN :usernames OR u.email IN :emails")
+    List<Object[]> findIdentities(@Param("usernames") Collection<String> usernames,
+                                  @Param("emails") Collection<String> emails);
 }
 
 
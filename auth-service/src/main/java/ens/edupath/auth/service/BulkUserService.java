@@ -0,0 +1,289 @@
+package ens.edupath.auth.service;
+
+import ens.edupath.auth.dto.BulkCreateUsersRequest;
+import ens.edupath.auth.dto.BulkCreateUsersResponse;
+import ens.edupath.auth.dto.CreateUserRequest;
+import ens.edupath.auth.entity.Role;
+import ens.edupath.auth.repository.RoleRepository;
+import ens.edupath.auth.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Création d'utilisateurs en masse (inscription d'une promotion depuis l'ingestion) :
+ * une seule requête pour détecter les noms d'utilisateur et emails existants, hachage BCrypt
+ * des mots de passe en parallèle, puis insertion groupée en JDBC. Les ids IDENTITY empêchent
+ * Hibernate de regrouper les insertions.
+ *
+ * Comme pour createUserByAdmin, les comptes sont créés non vérifiés, avec un mot de passe
+ * à changer ; le code de vérification est envoyé à la première connexion.
+ */
+@Service
+public class BulkUserService {
+
+    private static final String INSERT_USER = """
+            INSERT INTO users (username, email, password, email_verified, enabled, password_changed, created_at, updated_at)
+            VALUES (?, ?, ?, false, true, false, ?, ?)
+            ON CONFLICT DO NOTHING
+            """;
+
+    private static final String FIND_IDS = """
+            SELECT id, username, password FROM users WHERE username = ANY (?)
+            """;
+
+    private static final String INSERT_ROLE = "INSERT INTO user_roles (user_id, role_id) VALUES (?, ?)";
+
+    private final UserRepository userRepository;
+    private final RoleRepository roleRepository;
+    private final PasswordEncoder passwordEncoder;
+    private final EmailService emailService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Validator validator;
+    private final ExecutorService hashingExecutor;
+    private final ExecutorService emailExecutor = Executors.newSingleThreadExecutor();
+
+    @Value("${users.bulk.max-size:5000}")
+    private int maxBulkSize;
+
+    public BulkUserService(UserRepository userRepository, RoleRepository roleRepository,
+                           PasswordEncoder passwordEncoder, EmailService emailService,
+                           JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                           Validator validator,
+                           @Value("${users.bulk.hash-threads:0}") int hashThreads) {
+        this.userRepository = userRepository;
+        this.roleRepository = roleRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.emailService = emailService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.validator = validator;
+        // 0 = un thread par cœur : le hachage BCrypt est purement calculatoire
+        this.hashingExecutor = Executors.newFixedThreadPool(
+                hashThreads > 0 ? hashThreads : Runtime.getRuntime().availableProcessors());
+    }
+
+    public BulkCreateUsersResponse createUsers(BulkCreateUsersRequest request) {
+        List<CreateUserRequest> users = request.getUsers();
+        if (users.size() > maxBulkSize) {
+            throw new IllegalArgumentException("Trop d'utilisateurs dans la requête (" + users.size()
+                    + ", maximum " + maxBulkSize + ")");
+        }
+
+        BulkCreateUsersResponse response = new BulkCreateUsersResponse();
+        response.setReceived(users.size());
+
+        Map<Role.RoleName, Role> roles = roleRepository.findAll().stream()
+                .collect(Collectors.toMap(Role::getName, role -> role));
+
+        // Validation et doublons internes à la requête
+        List<Candidate> candidates = new ArrayList<>();
+        Set<String> usernames = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        for (int i = 0; i < users.size(); i++) {
+            CreateUserRequest user = users.get(i);
+            if (user.getUsername() != null) {
+                user.setUsername(user.getUsername().trim());
+            }
+            if (user.getEmail() != null) {
+                user.setEmail(user.getEmail().trim());
+            }
+            if (user.getPassword() == null || user.getPassword().isBlank()) {
+                user.setPassword(UserImportExportService.generateRandomPassword());
+            }
+
+            Set<ConstraintViolation<CreateUserRequest>> violations = validator.validate(user);
+            if (!violations.isEmpty()) {
+                error(response, i, user, violations.stream()
+                        .map(ConstraintViolation::getMessage).sorted().collect(Collectors.joining("; ")));
+                continue;
+            }
+
+            Set<Long> roleIds;
+            try {
+                roleIds = resolveRoles(user.getRoles(), roles);
+            } catch (IllegalArgumentException e) {
+                error(response, i, user, e.getMessage());
+                continue;
+            }
+
+            if (!usernames.add(user.getUsername()) || !emails.add(user.getEmail())) {
+                error(response, i, user, "Nom d'utilisateur ou email en double dans la requête");
+                continue;
+            }
+            candidates.add(new Candidate(i, user, roleIds));
+        }
+
+        // Une seule requête IN pour les comptes existants
+        Set<String> existingUsernames = new HashSet<>();
+        Set<String> existingEmails = new HashSet<>();
+        if (!candidates.isEmpty()) {
+            for (Object[] identity : userRepository.findIdentities(usernames, emails)) {
+                existingUsernames.add((String) identity[0]);
+                existingEmails.add((String) identity[1]);
+            }
+        }
+        List<Candidate> toCreate = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            if (existingUsernames.contains(candidate.user().getUsername())
+                    || existingEmails.contains(candidate.user().getEmail())) {
+                response.setExisting(response.getExisting() + 1);
+            } else {
+                toCreate.add(candidate);
+            }
+        }
+
+        // Hachage en parallèle, hors transaction
+        List<CompletableFuture<String>> hashes = toCreate.stream()
+                .map(candidate -> CompletableFuture.supplyAsync(
+                        () -> passwordEncoder.encode(candidate.user().getPassword()), hashingExecutor))
+                .toList();
+        for (int i = 0; i < toCreate.size(); i++) {
+            toCreate.get(i).hash = hashes.get(i).join();
+        }
+
+        List<Candidate> created = transactionTemplate.execute(status -> insert(toCreate));
+        response.setCreated(created.size());
+        // Créés entre la vérification et l'insertion par un autre appel
+        response.setExisting(response.getExisting() + toCreate.size() - created.size());
+        response.setFailed(response.getErrors().size());
+
+        if (request.isSendWelcomeEmail() && !created.isEmpty()) {
+            emailExecutor.execute(() -> sendWelcomeEmails(created));
+        }
+        return response;
+    }
+
+    /**
+     * Insère les utilisateurs puis leurs rôles. Un conflit d'unicité ignore la ligne : seules les
+     * lignes relues avec le hachage calculé ici sont des comptes créés par cet appel.
+     */
+    private List<Candidate> insert(List<Candidate> candidates) {
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(INSERT_USER, candidates.stream()
+                .map(c -> new Object[] {c.user().getUsername(), c.user().getEmail(), c.hash, now, now})
+                .toList());
+
+        Map<String, Candidate> byUsername = candidates.stream()
+                .collect(Collectors.toMap(c -> c.user().getUsername(), c -> c));
+        List<Candidate> created = new ArrayList<>();
+        jdbcTemplate.execute(FIND_IDS, (PreparedStatement ps) -> {
+            Array array = ps.getConnection().createArrayOf("text", byUsername.keySet().toArray());
+            try {
+                ps.setArray(1, array);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Candidate candidate = byUsername.get(rs.getString("username"));
+                        if (candidate != null && candidate.hash.equals(rs.getString("password"))) {
+                            candidate.id = rs.getLong("id");
+                            created.add(candidate);
+                        }
+                    }
+                }
+            } finally {
+                array.free();
+            }
+            return null;
+        });
+
+        List<Object[]> userRoles = new ArrayList<>();
+        for (Candidate candidate : created) {
+            for (Long roleId : candidate.roleIds()) {
+                userRoles.add(new Object[] {candidate.id, roleId});
+            }
+        }
+        jdbcTemplate.batchUpdate(INSERT_ROLE, userRoles);
+        created.sort(Comparator.comparingInt(Candidate::index));
+        return created;
+    }
+
+    private Set<Long> resolveRoles(Set<String> roleNames, Map<Role.RoleName, Role> roles) {
+        if (roleNames == null || roleNames.isEmpty()) {
+            roleNames = Set.of("ROLE_STUDENT");
+        }
+        Set<Long> ids = new HashSet<>();
+        for (String roleName : roleNames) {
+            Role.RoleName name;
+            try {
+                name = Role.RoleName.valueOf(roleName);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Rôle invalide: " + roleName);
+            }
+            Role role = roles.get(name);
+            if (role == null) {
+                throw new IllegalArgumentException("Rôle non trouvé: " + roleName);
+            }
+            ids.add(role.getId());
+        }
+        return ids;
+    }
+
+    private void sendWelcomeEmails(List<Candidate> created) {
+        for (Candidate candidate : created) {
+            try {
+                emailService.sendWelcomeEmail(candidate.user().getEmail(), candidate.user().getUsername(),
+                        candidate.user().getPassword());
+            } catch (Exception e) {
+                System.err.println("Erreur lors de l'envoi de l'email de bienvenue à "
+                        + candidate.user().getEmail() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void error(BulkCreateUsersResponse response, int index, CreateUserRequest user, String message) {
+        response.getErrors().add(new BulkCreateUsersResponse.UserError(index, user.getUsername(), message));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        hashingExecutor.shutdown();
+        emailExecutor.shutdown();
+    }
+
+    private static final class Candidate {
+        private final int index;
+        private final CreateUserRequest user;
+        private final Set<Long> roleIds;
+        private String hash;
+        private Long id;
+
+        private Candidate(int index, CreateUserRequest user, Set<Long> roleIds) {
+            this.index = index;
+            this.user = user;
+            this.roleIds = roleIds;
+        }
+
+        int index() {
+            return index;
+        }
+
+        CreateUserRequest user() {
+            return user;
+        }
+
+        Set<Long> roleIds() {
+            return roleIds;
+        }
+    }
+}
@@ -293,7 +293,7 @@ public class UserImportExportService {
         return new ByteArrayResource(bytes != null ? bytes : new byte[0]);
     }
 
-    private String generateRandomPassword() {
+    static String generateRandomPassword() {
         // Générer un mot de passe aléatoire de 12 caractères
         String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
         Random random = new Random();
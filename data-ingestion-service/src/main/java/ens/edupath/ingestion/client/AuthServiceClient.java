@@ -7,11 +7,13 @@ import org.springframework.web.bind.annotation.RequestBody;
 
 import java.util.Map;
 
-@FeignClient(name = "auth-service", path = "/api/auth/admin")
+@FeignClient(name = "auth-service", path = "/api/auth/admin", configuration = AuthServiceClientConfig.class)
 public interface AuthServiceClient {
 
     @PostMapping("/create-user")
     ResponseEntity<Object> createUser(@RequestBody Map<String, Object> userRequest);
-}
-
 
+    // Corps : {"users": [...], "sendWelcomeEmail": true} ; réponse : compteurs created, existing, failed et erreurs par index
+    @PostMapping("/users/bulk")
+    ResponseEntity<Map<String, Object>> createUsers(@RequestBody Map<String, Object> bulkRequest);
+}
@@ -0,0 +1,22 @@
+package ens.edupath.ingestion.client;
+
+import feign.RequestInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Configuration propre à {@link AuthServiceClient} (volontairement sans @Configuration, pour ne pas
+ * s'appliquer aux autres clients) : la création des comptes est authentifiée par la clé de service
+ * partagée avec auth-service, qui n'expire pas comme un JWT d'administrateur.
+ */
+public class AuthServiceClientConfig {
+
+    @Bean
+    public RequestInterceptor authServiceKeyInterceptor(@Value("${services.auth-service-key:}") String key) {
+        return template -> {
+            if (!key.isBlank()) {
+                template.header("X-Service-Key", key);
+            }
+        };
+    }
+}
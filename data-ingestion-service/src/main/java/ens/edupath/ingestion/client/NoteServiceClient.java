@@ -12,6 +12,10 @@ public interface NoteServiceClient {
 
     @PostMapping("/notes")
     ResponseEntity<?> createNote(@RequestBody Map<String, Object> noteRequest);
+
+    // Corps : {"notes": [...]} ; réponse : compteurs created, updated, failed et erreurs par index
+    @PostMapping("/notes/bulk")
+    ResponseEntity<Map<String, Object>> createNotes(@RequestBody Map<String, Object> bulkRequest);
 }
 
 
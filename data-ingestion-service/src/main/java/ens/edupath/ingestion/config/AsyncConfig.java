@@ -1,26 +1,37 @@
 package ens.edupath.ingestion.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
-import java.util.concurrent.Executor;
-
 @Configuration
 @EnableAsync
+@EnableScheduling
 public class AsyncConfig {
 
-    @Bean(name = "taskExecutor")
-    public Executor taskExecutor() {
+    // Pool des jobs d'ingestion : IngestionJobWorker ne réclame un job que si un thread est libre
+    @Bean(name = "ingestionJobExecutor")
+    public ThreadPoolTaskExecutor ingestionJobExecutor(@Value("${processing.jobs.workers:2}") int workers) {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(5);
-        executor.setQueueCapacity(100);
-        executor.setThreadNamePrefix("ingestion-");
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("ingestion-job-");
         executor.initialize();
         return executor;
     }
-}
-
 
+    // Envois groupés vers note-service et auth-service ; chaque ingestion limite elle-même ses lots en cours
+    @Bean(name = "ingestionForwardingExecutor")
+    public ThreadPoolTaskExecutor ingestionForwardingExecutor(@Value("${processing.forwarding.threads:4}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("ingestion-forwarding-");
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,98 @@
+package ens.edupath.ingestion.config;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Reprend les features de l'ancienne table ai_feature_values (une ligne par clé) dans le
+ * document JSONB ai_features.features, puis renomme l'ancienne table pour ne migrer qu'une fois.
+ * Fusionne ensuite les lignes en double par (entity_type, entity_id), qui empêchent Hibernate de
+ * créer uk_ai_features_entity, et crée la contrainte.
+ *
+ * Exécuté une fois l'application prête, c'est-à-dire après la mise à jour du schéma par Hibernate,
+ * sous un verrou consultatif PostgreSQL : une seule instance migre, les autres attendent puis
+ * ne trouvent plus rien à faire.
+ */
+@Component
+public class FeatureStoreMigration {
+
+    private static final long LOCK_KEY = 0x4544555041544831L; // Propre à cette migration
+
+    private static final String MIGRATE = """
+            UPDATE ai_features f
+            SET features = coalesce(f.features, '{}'::jsonb) || v.document
+            FROM (SELECT feature_id, jsonb_object_agg(feature_key, feature_value) AS document
+                  FROM ai_feature_values
+                  GROUP BY feature_id) v
+            WHERE f.id = v.feature_id
+            """;
+
+    // Document fusionné dans la ligne la plus récente ; pour une même clé, la valeur la plus récente l'emporte
+    private static final String MERGE_DUPLICATES = """
+            WITH duplicated AS (
+                SELECT entity_type, entity_id, max(id) AS keep_id
+                FROM ai_features
+                GROUP BY entity_type, entity_id
+                HAVING count(*) > 1),
+            merged AS (
+                SELECT d.keep_id, jsonb_object_agg(e.key, e.value ORDER BY a.id) AS document
+                FROM duplicated d
+                JOIN ai_features a ON a.entity_type = d.entity_type AND a.entity_id = d.entity_id
+                CROSS JOIN LATERAL jsonb_each(coalesce(a.features, '{}'::jsonb)) e
+                GROUP BY d.keep_id)
+            UPDATE ai_features f
+            SET features = m.document
+            FROM merged m
+            WHERE f.id = m.keep_id
+            """;
+
+    private static final String DUPLICATE_IDS = """
+            SELECT a.id FROM ai_features a
+            WHERE EXISTS (SELECT 1 FROM ai_features b
+                          WHERE b.entity_type = a.entity_type AND b.entity_id = a.entity_id AND b.id > a.id)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FeatureStoreMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void migrateLegacyFeatures() {
+        // Libéré à la fin de la transaction ; l'état est relu une fois le verrou obtenu
+        jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(?)::text", String.class, LOCK_KEY);
+
+        if (exists("ai_feature_values")) {
+            int migrated = jdbcTemplate.update(MIGRATE);
+            // Table conservée sous un autre nom : elle peut être supprimée à la main après vérification
+            jdbcTemplate.execute("ALTER TABLE ai_feature_values RENAME TO ai_feature_values_migrated");
+            System.out.println("Features IA migrées vers le document JSONB: " + migrated + " entités");
+        }
+
+        Boolean constrained = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_constraint WHERE conname = 'uk_ai_features_entity')", Boolean.class);
+        if (Boolean.TRUE.equals(constrained)) {
+            return;
+        }
+
+        jdbcTemplate.update(MERGE_DUPLICATES);
+        String duplicates = "(" + DUPLICATE_IDS + ")";
+        if (exists("ai_feature_values_migrated")) {
+            // La table renommée garde sa clé étrangère vers ai_features
+            jdbcTemplate.update("DELETE FROM ai_feature_values_migrated WHERE feature_id IN " + duplicates);
+        }
+        int removed = jdbcTemplate.update("DELETE FROM ai_features WHERE id IN " + duplicates);
+        jdbcTemplate.execute("ALTER TABLE ai_features ADD CONSTRAINT uk_ai_features_entity UNIQUE (entity_type, entity_id)");
+        System.out.println("Contrainte uk_ai_features_entity créée, lignes en double fusionnées: " + removed);
+    }
+
+    private boolean exists(String table) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT to_regclass('" + table + "') IS NOT NULL", Boolean.class));
+    }
+}
@@ -0,0 +1,241 @@
+package ens.edupath.ingestion.config;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.neo4j.core.Neo4jClient;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Crée et vérifie au démarrage les contraintes d'unicité et index du graphe utilisés par l'ingestion
+ * (findByStudentId, findByEmail, MERGE sur moduleId...). Sans eux, chaque recherche parcourt
+ * tous les nœuds du label.
+ *
+ * La version du schéma est enregistrée dans un nœud IngestionSchemaVersion. Le service refuse de
+ * démarrer si le graphe porte une version plus récente, si une définition existante est en conflit
+ * ou si l'un de ces index n'a pas pu être construit.
+ *
+ * Une contrainte d'unicité impossible à créer parce que le graphe contient déjà des valeurs en double
+ * ne bloque pas le démarrage : les valeurs en double sont listées dans la console, la version n'est pas
+ * enregistrée et la création est retentée au démarrage suivant, une fois les nœuds fusionnés.
+ */
+@Component
+public class GraphSchemaManager implements InitializingBean {
+
+    // À incrémenter à chaque modification de DEFINITIONS
+    static final int SCHEMA_VERSION = 1;
+
+    private static final List<Definition> DEFINITIONS = List.of(
+            Definition.unique("student_id_unique", "Student", "studentId"),
+            Definition.unique("module_id_unique", "Module", "moduleId"),
+            Definition.unique("evaluation_id_unique", "Evaluation", "evaluationId"),
+            Definition.unique("activity_id_unique", "Activity", "activityId"),
+            Definition.unique("resource_id_unique", "Resource", "resourceId"),
+            Definition.index("student_email_index", "Student", "email"),
+            Definition.index("student_username_index", "Student", "username"),
+            Definition.index("module_code_index", "Module", "code")
+    );
+
+    // Valeurs en double citées dans la console quand une contrainte ne peut pas être créée
+    private static final int DUPLICATE_SAMPLE = 20;
+
+    private final Neo4jClient neo4jClient;
+
+    @Value("${processing.graph-schema.enabled:true}")
+    private boolean enabled;
+
+    @Value("${processing.graph-schema.await-timeout:PT5M}")
+    private Duration awaitTimeout;
+
+    public GraphSchemaManager(Neo4jClient neo4jClient) {
+        this.neo4jClient = neo4jClient;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+
+        int currentVersion = neo4jClient.query("""
+                        OPTIONAL MATCH (v:IngestionSchemaVersion {name: 'data-ingestion'})
+                        RETURN coalesce(v.version, 0) AS version
+                        """)
+                .fetchAs(Integer.class).one().orElse(0);
+        if (currentVersion > SCHEMA_VERSION) {
+            throw new IllegalStateException("Le schéma du graphe est en version " + currentVersion
+                    + ", plus récente que celle du service (" + SCHEMA_VERSION + ")");
+        }
+
+        long start = System.nanoTime();
+        Set<Definition> duplicated = new LinkedHashSet<>();
+        for (Definition definition : DEFINITIONS) {
+            try {
+                neo4jClient.query(definition.createStatement()).run();
+            } catch (RuntimeException e) {
+                if (!reportDuplicates(definition)) {
+                    throw e;
+                }
+                duplicated.add(definition);
+            }
+        }
+
+        List<String> problems = verify(duplicated);
+        if (!problems.isEmpty()) {
+            throw new IllegalStateException("Schéma du graphe incohérent: " + String.join("; ", problems));
+        }
+
+        // Les index sont construits en arrière-plan par Neo4j : attendre qu'ils soient en ligne
+        neo4jClient.query("CALL db.awaitIndexes($timeout)")
+                .bind(awaitTimeout.toSeconds()).to("timeout")
+                .run();
+        List<String> failedIndexes = new ArrayList<>();
+        for (Definition definition : failedDefinitions()) {
+            // Doublons écrits pendant la construction de l'index de la contrainte
+            if (!duplicated.contains(definition) && !reportDuplicates(definition)) {
+                failedIndexes.add(definition.name());
+            }
+            duplicated.add(definition);
+        }
+        if (!failedIndexes.isEmpty()) {
+            throw new IllegalStateException("Index du graphe en échec: " + String.join(", ", failedIndexes));
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        if (!duplicated.isEmpty()) {
+            System.err.println("Schéma du graphe v" + SCHEMA_VERSION + " incomplet, version non enregistrée: "
+                    + (DEFINITIONS.size() - duplicated.size()) + " contraintes et index sur " + DEFINITIONS.size()
+                    + " en ligne");
+            return;
+        }
+
+        neo4jClient.query("""
+                        MERGE (v:IngestionSchemaVersion {name: 'data-ingestion'})
+                        SET v.version = $version, v.appliedAt = datetime()
+                        """)
+                .bind(SCHEMA_VERSION).to("version")
+                .run();
+
+        System.out.println("Schéma du graphe v" + SCHEMA_VERSION + " vérifié ("
+                + DEFINITIONS.size() + " contraintes et index, construction en " + elapsedMs + " ms)");
+    }
+
+    /**
+     * Chaque définition doit exister (sous n'importe quel nom), sauf les contraintes écartées pour
+     * valeurs en double, et aucun élément portant l'un de nos noms ne doit avoir une autre définition.
+     */
+    private List<String> verify(Set<Definition> duplicated) {
+        List<Map<String, Object>> existing = new ArrayList<>();
+        existing.addAll(neo4jClient.query(
+                        "SHOW CONSTRAINTS YIELD name, type, labelsOrTypes, properties RETURN name, type, labelsOrTypes, properties")
+                .fetch().all());
+        existing.addAll(neo4jClient.query(
+                        "SHOW INDEXES YIELD name, type, labelsOrTypes, properties, owningConstraint "
+                                + "WHERE owningConstraint IS NULL RETURN name, type, labelsOrTypes, properties")
+                .fetch().all());
+
+        List<String> problems = new ArrayList<>();
+        for (Definition definition : DEFINITIONS) {
+            boolean found = false;
+            for (Map<String, Object> element : existing) {
+                boolean sameName = definition.name().equals(element.get("name"));
+                boolean sameSchema = definition.matches(element);
+                if (sameName && !sameSchema) {
+                    problems.add(definition.name() + " existe avec une autre définition ("
+                            + element.get("type") + " " + element.get("labelsOrTypes") + element.get("properties") + ")");
+                }
+                found |= sameSchema;
+            }
+            if (!found && !duplicated.contains(definition)) {
+                problems.add(definition.name() + " absent");
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Définitions dont l'index n'est pas en ligne, qu'il porte notre nom ou couvre le même label et la
+     * même propriété (index d'une contrainte créée sous un autre nom). Les autres index du graphe,
+     * gérés par d'autres services, sont ignorés.
+     */
+    private List<Definition> failedDefinitions() {
+        Collection<Map<String, Object>> failed = neo4jClient.query(
+                        "SHOW INDEXES YIELD name, labelsOrTypes, properties, state WHERE state <> 'ONLINE' "
+                                + "RETURN name, labelsOrTypes, properties")
+                .fetch().all();
+        List<Definition> definitions = new ArrayList<>();
+        for (Definition definition : DEFINITIONS) {
+            if (failed.stream().anyMatch(index -> definition.name().equals(index.get("name")) || definition.covers(index))) {
+                definitions.add(definition);
+            }
+        }
+        return definitions;
+    }
+
+    /**
+     * Liste dans la console les valeurs en double qui empêchent une contrainte d'unicité.
+     *
+     * @return false s'il ne s'agit pas d'une contrainte d'unicité ou si aucune valeur n'est en double
+     */
+    private boolean reportDuplicates(Definition definition) {
+        if (!definition.unique()) {
+            return false;
+        }
+        Map<String, Object> duplicates = neo4jClient.query("MATCH (n:" + definition.label() + ") "
+                        + "WHERE n." + definition.property() + " IS NOT NULL "
+                        + "WITH n." + definition.property() + " AS key, count(n) AS nodes WHERE nodes > 1 "
+                        + "RETURN count(key) AS total, collect(toString(key) + ' (' + toString(nodes) + ' nœuds)')[..$limit] AS sample")
+                .bind(DUPLICATE_SAMPLE).to("limit")
+                .fetch().one().orElse(Map.of());
+        long total = duplicates.get("total") instanceof Number number ? number.longValue() : 0;
+        if (total == 0) {
+            return false;
+        }
+        System.err.println("Contrainte " + definition.name() + " non créée: " + total + " valeur(s) de "
+                + definition.label() + "." + definition.property() + " portée(s) par plusieurs nœuds, dont "
+                + duplicates.get("sample") + ". Fusionner ou supprimer les nœuds en double (MATCH (n:"
+                + definition.label() + " {" + definition.property() + ": <valeur>}) RETURN n), puis redémarrer "
+                + "le service pour créer la contrainte. D'ici là, les écritures sur " + definition.label()
+                + " peuvent modifier plusieurs nœuds.");
+        return true;
+    }
+
+    private record Definition(String name, String label, String property, boolean unique) {
+
+        static Definition unique(String name, String label, String property) {
+            return new Definition(name, label, property, true);
+        }
+
+        static Definition index(String name, String label, String property) {
+            return new Definition(name, label, property, false);
+        }
+
+        String createStatement() {
+            return unique
+                    ? "CREATE CONSTRAINT " + name + " IF NOT EXISTS FOR (n:" + label + ") REQUIRE n." + property + " IS UNIQUE"
+                    : "CREATE INDEX " + name + " IF NOT EXISTS FOR (n:" + label + ") ON (n." + property + ")";
+        }
+
+        boolean covers(Map<String, Object> index) {
+            return List.of(label).equals(index.get("labelsOrTypes"))
+                    && List.of(property).equals(index.get("properties"));
+        }
+
+        boolean matches(Map<String, Object> element) {
+            String type = String.valueOf(element.get("type"));
+            boolean uniqueness = type.contains("UNIQUENESS");
+            boolean propertyIndex = !uniqueness && !type.equals("LOOKUP") && !type.equals("FULLTEXT")
+                    && !type.contains("EXISTENCE") && !type.contains("KEY");
+            return (unique ? uniqueness : propertyIndex)
+                    && List.of(label).equals(element.get("labelsOrTypes"))
+                    && List.of(property).equals(element.get("properties"));
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package ens.edupath.ingestion.config;
 
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.config.RetryInterceptorBuilder;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.retry.MessageBatchRecoverer;
+import org.springframework.amqp.rabbit.retry.RepublishMessageRecoverer;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,12 +16,28 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class RabbitMQConfig {
 
+    public static final String INGESTION_QUEUE = "ingestion.queue";
+    public static final String CHUNK_QUEUE = "ingestion.chunks";
+    public static final String INGESTION_DEAD_LETTER_QUEUE = "ingestion.queue.dlq";
+
     @Value("${spring.rabbitmq.template.exchange}")
     private String exchangeName;
 
     @Value("${spring.rabbitmq.template.routing-key}")
     private String routingKey;
 
+    // Clé dédiée aux lots d'enregistrements publiés par les producteurs
+    @Value("${processing.messaging.routing-key:ingestion.records}")
+    private String recordsRoutingKey;
+
+    // Lots de messages dont les tentatives sont épuisées
+    @Value("${processing.messaging.dead-letter-routing-key:ingestion.records.dlq}")
+    private String deadLetterRoutingKey;
+
+    // Morceaux des gros CSV distribués entre les instances
+    @Value("${processing.distributed.routing-key:ingestion.chunk}")
+    private String chunkRoutingKey;
+
     @Bean
     public TopicExchange exchange() {
         return new TopicExchange(exchangeName);
@@ -25,7 +45,7 @@ public class RabbitMQConfig {
 
     @Bean
     public Queue ingestionQueue() {
-        return QueueBuilder.durable("ingestion.queue").build();
+        return QueueBuilder.durable(INGESTION_QUEUE).build();
     }
 
     @Bean
@@ -36,6 +56,111 @@ public class RabbitMQConfig {
                 .with(routingKey);
     }
 
+    @Bean
+    public Binding recordsBinding() {
+        return BindingBuilder
+                .bind(ingestionQueue())
+                .to(exchange())
+                .with(recordsRoutingKey);
+    }
+
+    @Bean
+    public Queue ingestionDeadLetterQueue() {
+        return QueueBuilder.durable(INGESTION_DEAD_LETTER_QUEUE).build();
+    }
+
+    @Bean
+    public Binding ingestionDeadLetterBinding() {
+        return BindingBuilder
+                .bind(ingestionDeadLetterQueue())
+                .to(exchange())
+                .with(deadLetterRoutingKey);
+    }
+
+    @Bean
+    public Queue chunkQueue() {
+        return QueueBuilder.durable(CHUNK_QUEUE).build();
+    }
+
+    @Bean
+    public Binding chunkBinding() {
+        return BindingBuilder
+                .bind(chunkQueue())
+                .to(exchange())
+                .with(chunkRoutingKey);
+    }
+
+    /**
+     * Un morceau représente plusieurs minutes de travail : un seul message en vol par consommateur,
+     * pour que les morceaux restants aillent aux instances libres.
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory ingestionChunkListenerFactory(
+            ConnectionFactory connectionFactory,
+            @Value("${processing.distributed.concurrency:2}") int concurrency) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(messageConverter());
+        factory.setConcurrentConsumers(Math.max(1, concurrency));
+        factory.setMaxConcurrentConsumers(Math.max(1, concurrency));
+        factory.setPrefetchCount(1);
+        factory.setDefaultRequeueRejected(true);
+        return factory;
+    }
+
+    /**
+     * Republie un message dans ingestion.queue.dlq, avec le motif de l'échec dans ses en-têtes
+     * (x-exception-message, x-exception-stacktrace).
+     */
+    @Bean
+    public RepublishMessageRecoverer ingestionDeadLetterRecoverer(RabbitTemplate rabbitTemplate) {
+        return new RepublishMessageRecoverer(rabbitTemplate, exchangeName, deadLetterRoutingKey);
+    }
+
+    /**
+     * Consommateurs par lots pour l'ingestion continue : un lot est livré dès batch-size messages
+     * ou après receive-timeout-ms sans nouveau message, ce qui borne la latence.
+     *
+     * Un lot en échec (graphe indisponible) est réessayé sur place avec un délai croissant ; après
+     * max-attempts tentatives, ses messages sont republiés dans ingestion.queue.dlq avec le motif
+     * de l'échec, au lieu d'être remis en file sans fin.
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory ingestionBatchListenerFactory(
+            ConnectionFactory connectionFactory,
+            RepublishMessageRecoverer deadLetters,
+            @Value("${processing.messaging.concurrency:2}") int concurrency,
+            @Value("${processing.messaging.max-concurrency:4}") int maxConcurrency,
+            @Value("${processing.messaging.prefetch:250}") int prefetch,
+            @Value("${processing.messaging.batch-size:100}") int batchSize,
+            @Value("${processing.messaging.receive-timeout-ms:200}") long receiveTimeout,
+            @Value("${processing.messaging.retry.max-attempts:5}") int maxAttempts,
+            @Value("${processing.messaging.retry.initial-interval-ms:1000}") long initialInterval,
+            @Value("${processing.messaging.retry.multiplier:2.0}") double multiplier,
+            @Value("${processing.messaging.retry.max-interval-ms:30000}") long maxInterval) {
+        MessageBatchRecoverer recoverer = (messages, cause) -> {
+            System.err.println("Lot de " + messages.size() + " message(s) d'ingestion envoyé dans "
+                    + INGESTION_DEAD_LETTER_QUEUE + " après " + maxAttempts + " tentatives: " + cause.getMessage());
+            messages.forEach(message -> deadLetters.recover(message, cause));
+        };
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(Math.max(concurrency, maxConcurrency));
+        factory.setPrefetchCount(Math.max(prefetch, batchSize));
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeout);
+        factory.setAdviceChain(RetryInterceptorBuilder.stateless()
+                .maxAttempts(Math.max(1, maxAttempts))
+                .backOffOptions(initialInterval, multiplier, maxInterval)
+                .recoverer(recoverer)
+                .build());
+        return factory;
+    }
+
     @Bean
     public MessageConverter messageConverter() {
         return new Jackson2JsonMessageConverter();
@@ -1,32 +1,74 @@
 package ens.edupath.ingestion.controller;
 
+import ens.edupath.ingestion.dto.DryRunReport;
 import ens.edupath.ingestion.dto.IngestionResponse;
+import ens.edupath.ingestion.dto.UploadSessionResponse;
+import ens.edupath.ingestion.service.BulkExportService;
+import ens.edupath.ingestion.service.ChunkedUploadService;
 import ens.edupath.ingestion.service.DataIngestionService;
+import ens.edupath.ingestion.service.DryRunValidationService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.constraints.NotBlank;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
 
 @RestController
 @RequestMapping("/api/ingestion")
 @CrossOrigin(origins = "*")
 public class DataIngestionController {
 
+    private static final String CHUNK_CHECKSUM_HEADER = "X-Chunk-Sha256";
+
     private final DataIngestionService dataIngestionService;
+    private final BulkExportService bulkExportService;
+    private final ChunkedUploadService chunkedUploadService;
+    private final DryRunValidationService dryRunValidationService;
 
-    public DataIngestionController(DataIngestionService dataIngestionService) {
+    public DataIngestionController(DataIngestionService dataIngestionService,
+                                   BulkExportService bulkExportService,
+                                   ChunkedUploadService chunkedUploadService,
+                                   DryRunValidationService dryRunValidationService) {
         this.dataIngestionService = dataIngestionService;
+        this.bulkExportService = bulkExportService;
+        this.chunkedUploadService = chunkedUploadService;
+        this.dryRunValidationService = dryRunValidationService;
     }
 
+    /**
+     * Avec dryRun=true, le fichier est seulement validé (conversions, références) et un rapport
+     * ligne à ligne est renvoyé : rien n'est écrit, aucun log d'ingestion n'est créé.
+     * Avec dataset, seules les lignes nouvelles ou modifiées depuis le dernier envoi de ce jeu de
+     * données sont écrites ; flagRemoved marque dans le graphe les lignes qui ont disparu.
+     */
     @PostMapping("/upload")
-    public ResponseEntity<IngestionResponse> uploadFile(
+    public ResponseEntity<?> uploadFile(
             @RequestParam("file") MultipartFile file,
             @RequestParam("entityType") @NotBlank String entityType,
-            @RequestParam(value = "async", defaultValue = "false") boolean async) {
+            @RequestParam(value = "async", defaultValue = "false") boolean async,
+            @RequestParam(value = "force", defaultValue = "false") boolean force,
+            @RequestParam(value = "dryRun", defaultValue = "false") boolean dryRun,
+            @RequestParam(value = "dataset", required = false) String dataset,
+            @RequestParam(value = "flagRemoved", defaultValue = "false") boolean flagRemoved) {
         
+        if (dryRun) {
+            DryRunReport report = dryRunValidationService.validate(file, entityType);
+            return report.getFileErrors().isEmpty()
+                    ? ResponseEntity.ok(report)
+                    : ResponseEntity.status(HttpStatus.BAD_REQUEST).body(report);
+        }
+
         try {
-            IngestionResponse response = dataIngestionService.processFile(file, entityType, async);
+            IngestionResponse response = dataIngestionService.processFile(file, entityType, async, force, dataset, flagRemoved);
             
             if (response.getStatus().equals("FAILED")) {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
@@ -41,10 +83,189 @@ public class DataIngestionController {
         }
     }
 
+    @PostMapping("/logs/{logId}/resume")
+    public ResponseEntity<IngestionResponse> resumeIngestion(
+            @PathVariable Long logId,
+            @RequestParam(value = "file", required = false) MultipartFile file) {
+
+        try {
+            IngestionResponse response = dataIngestionService.resumeIngestion(logId, file);
+
+            if (response.getStatus().equals("FAILED")) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+            }
+
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(errorResponse(e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(errorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(errorResponse("Erreur lors de la reprise: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping(value = "/logs/{logId}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamProgress(@PathVariable Long logId) {
+        try {
+            return ResponseEntity.ok(dataIngestionService.watchProgress(logId));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping("/logs/{logId}/rejects")
+    public ResponseEntity<Resource> downloadRejects(@PathVariable Long logId) {
+        try {
+            Path rejects = dataIngestionService.getRejectsFile(logId);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType("application/gzip"))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + rejects.getFileName() + "\"")
+                    .body(new FileSystemResource(rejects));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Produit les fichiers neo4j-admin import (et leur manifeste) pour un chargement initial hors ligne.
+     */
+    @PostMapping("/bulk-export")
+    public ResponseEntity<?> bulkExport(
+            @RequestParam("files") MultipartFile[] files,
+            @RequestParam("entityTypes") String[] entityTypes) {
+
+        try {
+            return ResponseEntity.ok(bulkExportService.export(files, entityTypes));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(errorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(errorResponse("Erreur lors de l'export: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Même export à partir d'envois par morceaux entièrement reçus, pour les fichiers trop gros
+     * pour un envoi multipart. Les envois sont terminés sans ingestion.
+     */
+    @PostMapping("/bulk-export/uploads")
+    public ResponseEntity<?> bulkExportUploads(@RequestParam("uploadIds") String[] uploadIds) {
+        try {
+            return ResponseEntity.ok(bulkExportService.exportUploads(uploadIds));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorResponse(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(errorResponse(e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(errorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(errorResponse("Erreur lors de l'export: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Ouvre un envoi par morceaux. Les morceaux sont ensuite envoyés avec PUT /uploads/{uploadId}.
+     */
+    @PostMapping("/uploads")
+    public ResponseEntity<UploadSessionResponse> initiateUpload(
+            @RequestParam("fileName") @NotBlank String fileName,
+            @RequestParam("entityType") @NotBlank String entityType,
+            @RequestParam(value = "size", required = false) Long size) {
+
+        try {
+            return ResponseEntity.status(HttpStatus.CREATED).body(chunkedUploadService.initiate(fileName, entityType, size));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(uploadErrorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(uploadErrorResponse("Erreur lors de l'ouverture de l'envoi: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Ajoute un morceau (corps brut) à l'offset donné. En cas de conflit, la réponse contient
+     * l'offset attendu pour reprendre l'envoi.
+     */
+    @PutMapping(value = "/uploads/{uploadId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<UploadSessionResponse> uploadChunk(
+            @PathVariable String uploadId,
+            @RequestParam("offset") long offset,
+            @RequestHeader(CHUNK_CHECKSUM_HEADER) String checksum,
+            HttpServletRequest request) {
+
+        try {
+            return ResponseEntity.ok(chunkedUploadService.appendChunk(uploadId, offset, checksum, request.getInputStream()));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(uploadErrorResponse(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(uploadErrorResponse(e.getMessage()));
+        } catch (IllegalStateException e) {
+            UploadSessionResponse response = chunkedUploadService.status(uploadId);
+            response.setMessage(e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(uploadErrorResponse("Erreur lors de la réception du morceau: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/uploads/{uploadId}")
+    public ResponseEntity<UploadSessionResponse> uploadStatus(@PathVariable String uploadId) {
+        try {
+            return ResponseEntity.ok(chunkedUploadService.status(uploadId));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping("/uploads/{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(
+            @PathVariable String uploadId,
+            @RequestParam(value = "sha256", required = false) String sha256,
+            @RequestParam(value = "async", defaultValue = "true") boolean async,
+            @RequestParam(value = "force", defaultValue = "false") boolean force,
+            @RequestParam(value = "dataset", required = false) String dataset,
+            @RequestParam(value = "flagRemoved", defaultValue = "false") boolean flagRemoved) {
+
+        try {
+            IngestionResponse response = chunkedUploadService.complete(uploadId, sha256, async, force,
+                    dataset, flagRemoved);
+
+            if (response.getStatus().equals("FAILED")) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+            }
+
+            return ResponseEntity.ok(response);
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(uploadErrorResponse(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(uploadErrorResponse(e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(uploadErrorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(uploadErrorResponse("Erreur lors de la finalisation: " + e.getMessage()));
+        }
+    }
+
     @GetMapping("/health")
     public ResponseEntity<String> health() {
         return ResponseEntity.ok("Data Ingestion Service is running");
     }
-}
 
+    private UploadSessionResponse uploadErrorResponse(String message) {
+        UploadSessionResponse response = new UploadSessionResponse();
+        response.setMessage(message);
+        return response;
+    }
 
+    private IngestionResponse errorResponse(String message) {
+        IngestionResponse errorResponse = new IngestionResponse();
+        errorResponse.setStatus("FAILED");
+        errorResponse.setMessage(message);
+        return errorResponse;
+    }
+}
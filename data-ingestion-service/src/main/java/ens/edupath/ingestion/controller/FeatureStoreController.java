@@ -0,0 +1,52 @@
+package ens.edupath.ingestion.controller;
+
+import ens.edupath.ingestion.service.FeatureStoreService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/ingestion/features")
+@CrossOrigin(origins = "*")
+public class FeatureStoreController {
+
+    private final FeatureStoreService featureStoreService;
+
+    public FeatureStoreController(FeatureStoreService featureStoreService) {
+        this.featureStoreService = featureStoreService;
+    }
+
+    /**
+     * Enregistre (ou complète) les features d'un ensemble d'entités : { "entityId": { "feature": valeur } }.
+     */
+    @PutMapping("/{entityType}")
+    public ResponseEntity<?> upsertFeatures(
+            @PathVariable String entityType,
+            @RequestBody Map<String, Map<String, Object>> features) {
+
+        try {
+            return ResponseEntity.ok(Map.of("entityType", entityType,
+                    "entities", featureStoreService.upsert(entityType, features)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("message", e.getMessage()));
+        }
+    }
+
+    /**
+     * Lecture groupée pour le service de prédiction : une seule requête pour toute la liste d'identifiants.
+     */
+    @PostMapping("/{entityType}/query")
+    public ResponseEntity<?> findFeatures(
+            @PathVariable String entityType,
+            @RequestBody List<String> entityIds) {
+
+        try {
+            return ResponseEntity.ok(featureStoreService.findFeatures(entityType, entityIds));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("message", e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ens.edupath.ingestion.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkExportManifest {
+    private String exportId;
+    private LocalDateTime createdAt;
+    private String directory;
+    private List<Input> inputs = new ArrayList<>();
+    private Map<String, ImportFile> nodes = new LinkedHashMap<>(); // Label → fichier
+    private Map<String, ImportFile> relationships = new LinkedHashMap<>(); // Type → fichier
+    private long duplicateNodesSkipped; // Lignes répétées, seule la dernière est écrite
+    private String importCommand; // À lancer depuis le répertoire de l'export, base arrêtée
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Input {
+        private String fileName;
+        private String entityType;
+        private long records;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ImportFile {
+        private String file;
+        private long count;
+    }
+}
@@ -0,0 +1,45 @@
+package ens.edupath.ingestion.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rapport d'une validation à blanc : rien n'est écrit dans le graphe.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DryRunReport {
+    private String fileName;
+    private String entityType;
+    private boolean valid;
+    private long totalRecords;
+    private long validRecords;
+    private long invalidRecords;
+    private Map<String, Long> errorCounts = new TreeMap<>(); // Par champ et code, ex. "score:INVALID_NUMBER"
+    private List<RowError> errors = new ArrayList<>(); // Échantillon trié par ligne
+    private boolean errorsTruncated;
+    private long unknownStudentReferences; // Étudiants absents du graphe, créés par l'ingestion
+    private long unknownModuleReferences;
+    private List<String> unknownModuleIds = new ArrayList<>(); // Échantillon
+    private List<String> fileErrors = new ArrayList<>(); // Extension, taille, format illisible...
+    private long durationMs;
+    private String message;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RowError {
+        private long rowNumber;
+        private String column;
+        private String code;
+        private String value;
+        private String message;
+    }
+}
@@ -0,0 +1,21 @@
+package ens.edupath.ingestion.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lot d'enregistrements publié sur ingestion.queue par un producteur (activities-service, connecteur LMS...).
+ * Chaque enregistrement utilise les mêmes noms de colonnes qu'un fichier d'import.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestionMessage {
+    private String entityType; // User, Module, Note, Presence, Activity
+    private String source;
+    private List<Map<String, Object>> records;
+}
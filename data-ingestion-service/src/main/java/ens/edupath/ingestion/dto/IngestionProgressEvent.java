@@ -0,0 +1,19 @@
+package ens.edupath.ingestion.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestionProgressEvent {
+    private Long logId;
+    private String status;
+    private Long parsedRecords;
+    private Long successfulRecords;
+    private Long failedRecords;
+    private Double recordsPerSecond;
+    private Long etaSeconds; // null tant que la progression dans le fichier n'est pas mesurable
+    private Double percent;
+}
@@ -5,6 +5,8 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 
 @Data
 @NoArgsConstructor
@@ -17,6 +19,16 @@ public class IngestionResponse {
     private Integer totalRecords;
     private Integer successfulRecords;
     private Integer failedRecords;
+    private Integer forwardedRecords; // Lignes transmises à note-service ou auth-service
+    private Integer forwardFailedRecords; // Lignes dont la transmission a échoué
+    private Map<String, Long> columnErrors;
+    private String rejectsUrl; // Téléchargement des lignes rejetées
+    private Integer droppedRejects; // Lignes rejetées absentes du fichier (file des rejets pleine)
+    private List<Long> subLogIds; // Sous-jobs d'un classeur multi-feuilles ou d'une archive
+    private Long duplicateOfLogId; // Ingestion précédente du même fichier
+    private String dataset; // Jeu de données d'une ingestion en delta
+    private Integer unchangedRecords; // Lignes identiques au dernier envoi, non réécrites
+    private Integer removedRecords; // Lignes du dernier envoi absentes de ce fichier
     private String message;
     private LocalDateTime processedAt;
 }
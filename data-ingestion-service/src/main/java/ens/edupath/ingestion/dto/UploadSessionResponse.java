@@ -0,0 +1,20 @@
+package ens.edupath.ingestion.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSessionResponse {
+    private String uploadId;
+    private String fileName;
+    private String entityType;
+    private String status;
+    private Long expectedSize;
+    private Long receivedBytes; // Offset du prochain morceau
+    private Long maxChunkSize;
+    private Long logId;
+    private String message;
+}
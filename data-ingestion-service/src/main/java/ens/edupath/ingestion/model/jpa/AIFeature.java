@@ -4,6 +4,8 @@ import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
@@ -12,7 +14,8 @@ import java.time.LocalDateTime;
 import java.util.Map;
 
 @Entity
-@Table(name = "ai_features")
+@Table(name = "ai_features",
+        uniqueConstraints = @UniqueConstraint(name = "uk_ai_features_entity", columnNames = {"entity_type", "entity_id"}))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -31,11 +34,10 @@ public class AIFeature {
     @Column(columnDefinition = "TEXT")
     private String rawData; // JSON string of raw data
 
-    @ElementCollection
-    @CollectionTable(name = "ai_feature_values", joinColumns = @JoinColumn(name = "feature_id"))
-    @MapKeyColumn(name = "feature_key")
-    @Column(name = "feature_value")
-    private Map<String, String> features; // Processed features for AI
+    // Document JSONB : une seule colonne lue avec la ligne, valeurs numériques conservées
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(columnDefinition = "jsonb")
+    private Map<String, Object> features; // Processed features for AI
 
     @Column(columnDefinition = "TEXT")
     private String metadata; // Additional metadata as JSON
@@ -0,0 +1,47 @@
+package ens.edupath.ingestion.model.jpa;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.time.LocalDateTime;
+
+/**
+ * Empreinte de la dernière version ingérée d'une ligne d'un jeu de données, indexée par la clé
+ * naturelle de la ligne (identifiant du nœud dans le graphe). Lue et écrite par lots JDBC
+ * dans {@link ens.edupath.ingestion.service.DatasetRowIndex}.
+ */
+@Entity
+@Table(name = "dataset_row_hashes",
+        uniqueConstraints = @UniqueConstraint(name = "uk_dataset_row_hashes_key", columnNames = {"dataset", "row_key"}),
+        indexes = @Index(name = "idx_dataset_row_hashes_seen", columnList = "dataset, lastSeenLogId"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@EntityListeners(AuditingEntityListener.class)
+public class DatasetRowHash {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String dataset; // Nom choisi à l'envoi, ex. "notes-l3-info-s1"
+
+    @Column(nullable = false)
+    private String entityType;
+
+    @Column(nullable = false)
+    private String rowKey;
+
+    @Column(nullable = false, length = 64)
+    private String rowHash; // SHA-256 des valeurs de la ligne
+
+    @Column(nullable = false)
+    private Long lastSeenLogId; // Dernière ingestion dont le fichier contenait la ligne
+
+    @LastModifiedDate
+    private LocalDateTime updatedAt;
+}
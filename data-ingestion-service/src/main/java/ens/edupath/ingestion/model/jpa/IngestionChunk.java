@@ -0,0 +1,84 @@
+package ens.edupath.ingestion.model.jpa;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Plage d'octets d'un CSV distribué entre les instances : [startOffset, endOffset), lue après
+ * les headerLength premiers octets du fichier (la ligne de headers).
+ */
+@Entity
+@Table(name = "ingestion_chunks",
+        uniqueConstraints = @UniqueConstraint(name = "uk_ingestion_chunks_log_index", columnNames = {"log_id", "chunk_index"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@EntityListeners(AuditingEntityListener.class)
+public class IngestionChunk {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long logId;
+
+    @Column(nullable = false)
+    private Integer chunkIndex;
+
+    @Column(nullable = false)
+    private Long headerLength;
+
+    @Column(nullable = false)
+    private Long startOffset;
+
+    @Column(nullable = false)
+    private Long endOffset;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    private Integer attempts;
+    private String workerId;
+    private LocalDateTime heartbeatAt; // Renouvelé par l'instance qui traite le morceau
+
+    private Integer totalRecords;
+    private Integer successfulRecords;
+    private Integer failedRecords;
+    private Integer forwardedRecords;
+    private Integer forwardFailedRecords;
+
+    private String rejectsFilePath;
+    private Integer droppedRejects; // Lignes rejetées absentes du fichier (file des rejets pleine)
+
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(columnDefinition = "jsonb")
+    private Map<String, Long> columnErrors; // Valeurs non convertibles par colonne, pour ce morceau
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    @CreatedDate
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @LastModifiedDate
+    private LocalDateTime updatedAt;
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+}
@@ -4,13 +4,17 @@ import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import java.time.LocalDateTime;
+import java.util.Map;
 
 @Entity
-@Table(name = "ingestion_logs")
+@Table(name = "ingestion_logs", indexes = @Index(name = "idx_ingestion_logs_content_hash", columnList = "contentHash"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -40,10 +44,46 @@ public class IngestionLog {
     private Integer successfulRecords;
     private Integer failedRecords;
 
+    // Transmission des lignes écrites à note-service ou auth-service
+    private Integer forwardedRecords;
+    private Integer forwardFailedRecords;
+
+    // Point de reprise : nombre de lignes du fichier déjà traitées et validées
+    private Integer checkpointOffset;
+    private LocalDateTime checkpointAt;
+
+    @Column(length = 64)
+    private String contentHash; // SHA-256 du fichier reçu
+
+    // Classeur multi-feuilles ou archive ZIP : un sous-log par feuille ou par fichier
+    private Long parentLogId;
+    private String sheetName; // Feuille à lire, null pour la première
+    private Integer subJobCount; // Renseigné sur le log parent uniquement
+
+    private Long duplicateOfLogId; // Renseigné si le fichier a été ignoré : ingestion d'origine du même contenu
+
+    // Ingestion en delta : seules les lignes nouvelles ou modifiées depuis le dernier envoi du jeu de données sont écrites
+    private String dataset;
+    private Boolean flagRemoved; // Marquer dans le graphe les lignes disparues du fichier
+    private Integer unchangedRecords;
+    private Integer removedRecords;
+
+    private String storedFilePath; // Copie du fichier conservée pour la reprise
+
+    private String rejectsFilePath; // CSV gzip des lignes rejetées et de leur motif
+    private Integer droppedRejects; // Lignes rejetées absentes du fichier (file des rejets pleine)
+
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(columnDefinition = "jsonb")
+    private Map<String, Long> columnErrors; // Valeurs non convertibles par colonne
+
     @CreatedDate
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
+    @LastModifiedDate
+    private LocalDateTime updatedAt;
+
     public enum Status {
         PENDING,
         PROCESSING,
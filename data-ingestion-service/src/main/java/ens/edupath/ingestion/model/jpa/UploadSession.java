@@ -0,0 +1,63 @@
+package ens.edupath.ingestion.model.jpa;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.time.LocalDateTime;
+
+/**
+ * Envoi d'un fichier par morceaux : les morceaux sont ajoutés au fichier d'accumulation
+ * (spoolPath) et receivedBytes donne l'offset attendu pour le prochain morceau.
+ */
+@Entity
+@Table(name = "upload_sessions")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@EntityListeners(AuditingEntityListener.class)
+public class UploadSession {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true, length = 36)
+    private String uploadId;
+
+    @Column(nullable = false)
+    private String fileName;
+
+    @Column(nullable = false)
+    private String entityType;
+
+    private Long expectedSize; // Taille annoncée à l'ouverture, si connue
+
+    @Column(nullable = false)
+    private Long receivedBytes;
+
+    @Column(nullable = false)
+    private String spoolPath;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    private Long logId; // Log d'ingestion créé à la finalisation
+
+    @CreatedDate
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @LastModifiedDate
+    private LocalDateTime updatedAt;
+
+    public enum Status {
+        OPEN,
+        COMPLETED,
+        EXPIRED
+    }
+}
@@ -0,0 +1,32 @@
+package ens.edupath.ingestion.repository.jpa;
+
+import ens.edupath.ingestion.model.jpa.IngestionChunk;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface IngestionChunkRepository extends JpaRepository<IngestionChunk, Long> {
+    List<IngestionChunk> findByLogIdOrderByChunkIndexAsc(Long logId);
+
+    // Un message redistribué ne doit pas être pris par deux instances à la fois
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM IngestionChunk c WHERE c.id = :id")
+    Optional<IngestionChunk> lockById(@Param("id") Long id);
+
+    // 0 si le morceau a été repris par une autre instance entre-temps
+    @Modifying
+    @Query("UPDATE IngestionChunk c SET c.heartbeatAt = :now WHERE c.id = :id AND c.workerId = :workerId AND c.status = :status")
+    int touch(@Param("id") Long id,
+              @Param("workerId") String workerId,
+              @Param("status") IngestionChunk.Status status,
+              @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,34 @@
+package ens.edupath.ingestion.repository.jpa;
+
+import ens.edupath.ingestion.model.jpa.IngestionJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface IngestionJobRepository extends JpaRepository<IngestionJob, Long> {
+
+    // SKIP LOCKED : chaque instance réclame un job différent sans attendre les verrous des autres
+    @Query(value = "SELECT * FROM ingestion_jobs WHERE status = 'QUEUED' ORDER BY id LIMIT 1 FOR UPDATE SKIP LOCKED",
+            nativeQuery = true)
+    Optional<IngestionJob> lockNextQueued();
+
+    @Modifying
+    @Query("UPDATE IngestionJob j SET j.heartbeatAt = :now "
+            + "WHERE j.id IN :ids AND j.workerId = :workerId AND j.status = :status")
+    int touch(@Param("ids") Collection<Long> ids,
+              @Param("workerId") String workerId,
+              @Param("status") IngestionJob.Status status,
+              @Param("now") LocalDateTime now);
+
+    List<IngestionJob> findByStatusAndHeartbeatAtBefore(IngestionJob.Status status, LocalDateTime threshold);
+
+    List<IngestionJob> findByLogId(Long logId);
+}
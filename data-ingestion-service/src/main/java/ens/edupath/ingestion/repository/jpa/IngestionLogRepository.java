@@ -1,15 +1,30 @@
 package ens.edupath.ingestion.repository.jpa;
 
 import ens.edupath.ingestion.model.jpa.IngestionLog;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface IngestionLogRepository extends JpaRepository<IngestionLog, Long> {
     List<IngestionLog> findByEntityType(String entityType);
     List<IngestionLog> findByStatus(IngestionLog.Status status);
+    List<IngestionLog> findByParentLogIdOrderByIdAsc(Long parentLogId);
+
+    // Sérialise l'agrégation des sous-jobs d'un même parent qui se terminent en même temps
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT l FROM IngestionLog l WHERE l.id = :id")
+    Optional<IngestionLog> lockById(@Param("id") Long id);
+
+    Optional<IngestionLog> findFirstByContentHashAndEntityTypeAndStatusInAndIdNotAndParentLogIdIsNullOrderByIdDesc(
+            String contentHash, String entityType, Collection<IngestionLog.Status> statuses, Long id);
 }
 
 
@@ -0,0 +1,174 @@
+package ens.edupath.ingestion.service;
+
+import org.springframework.core.task.TaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Transmet à un autre service les lignes d'une ingestion écrites dans le graphe, par lots de
+ * batchSize éléments. Les lots partent en arrière-plan pendant que la lecture du fichier continue ;
+ * au-delà de maxInFlight lots en cours, la lecture attend.
+ *
+ * Utilisable depuis plusieurs voies d'écriture. La fermeture envoie le dernier lot et attend la
+ * fin des envois en cours. Un envoi en échec est compté sans faire échouer l'ingestion : le graphe
+ * reste la référence, et l'ingestion est marquée PARTIALLY_COMPLETED.
+ */
+final class BatchForwarder implements AutoCloseable {
+
+    private static final BatchForwarder DISABLED = new BatchForwarder(null, null, 1, 1, null, null, null);
+
+    private final String label;
+    private final String target;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final TaskExecutor executor;
+    private final Function<IngestionRecord, Map<String, Object>> converter;
+    private final ToLongFunction<List<Map<String, Object>>> sender;
+    private final Semaphore inFlight;
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private List<Map<String, Object>> pending = new ArrayList<>();
+
+    /**
+     * @param label     désignation de l'ingestion dans les messages console
+     * @param target    service destinataire, pour les messages console
+     * @param converter élément envoyé pour une ligne, ou null si la ligne n'en permet pas
+     * @param sender    envoie un lot et retourne le nombre d'éléments refusés par le destinataire
+     */
+    BatchForwarder(String label, String target, int batchSize, int maxInFlight, TaskExecutor executor,
+                   Function<IngestionRecord, Map<String, Object>> converter,
+                   ToLongFunction<List<Map<String, Object>>> sender) {
+        this.label = label;
+        this.target = target;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.executor = executor;
+        this.converter = converter;
+        this.sender = sender;
+        this.inFlight = new Semaphore(this.maxInFlight);
+    }
+
+    /**
+     * Transmetteur sans effet, pour les types de lignes qui ne sont transmis nulle part.
+     */
+    static BatchForwarder disabled() {
+        return DISABLED;
+    }
+
+    private boolean active() {
+        return this != DISABLED;
+    }
+
+    /**
+     * Ajoute des lignes écrites avec succès dans le graphe.
+     */
+    void accept(List<IngestionRecord> records) {
+        if (!active() || records.isEmpty()) {
+            return;
+        }
+        List<Map<String, Object>> items = new ArrayList<>(records.size());
+        for (IngestionRecord record : records) {
+            Map<String, Object> item = converter.apply(record);
+            if (item != null) {
+                items.add(item);
+            } else {
+                skipped.increment();
+            }
+        }
+
+        List<Map<String, Object>> full = null;
+        synchronized (this) {
+            pending.addAll(items);
+            if (pending.size() >= batchSize) {
+                // Seuls des lots complets partent ; le reste attend les lignes suivantes
+                int cut = pending.size() - pending.size() % batchSize;
+                full = pending.subList(0, cut);
+                pending = new ArrayList<>(pending.subList(cut, pending.size()));
+            }
+        }
+        if (full != null) {
+            for (int from = 0; from < full.size(); from += batchSize) {
+                submit(full.subList(from, Math.min(full.size(), from + batchSize)));
+            }
+        }
+    }
+
+    private void submit(List<Map<String, Object>> items) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.add(items.size());
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    send(items);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            failed.add(items.size());
+            System.err.println("Envoi vers " + target + " pour " + label + " refusé: " + e.getMessage());
+        }
+    }
+
+    private void send(List<Map<String, Object>> items) {
+        try {
+            long rejected = sender.applyAsLong(items);
+            failed.add(rejected);
+            forwarded.add(items.size() - rejected);
+        } catch (Exception e) {
+            failed.add(items.size());
+            System.err.println("Erreur lors de l'envoi de " + items.size() + " éléments de " + label
+                    + " à " + target + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Éléments acceptés par le destinataire ; définitif après {@link #close()}.
+     */
+    long getForwarded() {
+        return forwarded.sum();
+    }
+
+    /**
+     * Éléments non transmis ou refusés par le destinataire ; définitif après {@link #close()}.
+     */
+    long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public void close() {
+        if (!active()) {
+            return;
+        }
+        List<Map<String, Object>> last;
+        synchronized (this) {
+            last = pending;
+            pending = new ArrayList<>();
+        }
+        if (!last.isEmpty()) {
+            submit(last);
+        }
+
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+
+        if (forwarded.sum() + failed.sum() + skipped.sum() > 0) {
+            System.out.println("Lignes de " + label + " transmises à " + target + ": " + forwarded.sum()
+                    + ", en échec: " + failed.sum() + ", ignorées (données incomplètes): " + skipped.sum());
+        }
+    }
+}
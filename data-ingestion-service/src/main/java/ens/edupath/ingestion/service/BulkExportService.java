@@ -0,0 +1,139 @@
+package ens.edupath.ingestion.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.opencsv.exceptions.CsvException;
+import ens.edupath.ingestion.dto.BulkExportManifest;
+import ens.edupath.ingestion.dto.UploadSessionResponse;
+import ens.edupath.ingestion.dto.ValidationResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mode de chargement initial hors ligne : convertit les fichiers d'ingestion en fichiers
+ * neo4j-admin database import, sans passer par les écritures transactionnelles.
+ * L'import se fait sur une base arrêtée et vide ; les contraintes sont ensuite créées
+ * par GraphSchemaManager au démarrage du service.
+ */
+@Service
+public class BulkExportService {
+
+    private final FileValidationService fileValidationService;
+    private final ChunkedUploadService chunkedUploadService;
+    private final IngestionFileStore ingestionFileStore;
+    private final IngestionFileReader ingestionFileReader;
+    private final ObjectMapper objectMapper;
+
+    @Value("${processing.bulk-export.output-dir:./temp/bulk-export}")
+    private String outputDir;
+
+    public BulkExportService(FileValidationService fileValidationService,
+                             ChunkedUploadService chunkedUploadService,
+                             IngestionFileStore ingestionFileStore,
+                             IngestionFileReader ingestionFileReader,
+                             ObjectMapper objectMapper) {
+        this.fileValidationService = fileValidationService;
+        this.chunkedUploadService = chunkedUploadService;
+        this.ingestionFileStore = ingestionFileStore;
+        this.ingestionFileReader = ingestionFileReader;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Les fichiers sont lus dans l'ordre : un fichier d'étudiants placé avant les notes
+     * fournit leurs propriétés complètes, les lignes de notes complètent ensuite.
+     */
+    public BulkExportManifest export(MultipartFile[] files, String[] entityTypes) throws IOException, CsvException {
+        if (files == null || files.length == 0 || entityTypes == null || files.length != entityTypes.length) {
+            throw new IllegalArgumentException("Un type d'entité est attendu pour chaque fichier");
+        }
+        for (int i = 0; i < files.length; i++) {
+            ValidationResult validation = fileValidationService.validateFile(files[i], entityTypes[i]);
+            if (!validation.isValid()) {
+                throw new IllegalArgumentException(files[i].getOriginalFilename() + ": "
+                        + String.join("; ", validation.getErrors()));
+            }
+        }
+
+        List<ExportFile> inputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < files.length; i++) {
+                inputs.add(new ExportFile(files[i].getOriginalFilename(), entityTypes[i],
+                        ingestionFileStore.store(files[i]).path()));
+            }
+            return export(inputs);
+        } finally {
+            inputs.forEach(input -> ingestionFileStore.delete(input.path().toString()));
+        }
+    }
+
+    /**
+     * Export depuis des envois par morceaux (POST /uploads), pour les fichiers au-delà de la
+     * limite des envois multipart. Les envois doivent être entièrement reçus ; ils sont terminés
+     * sans lancer d'ingestion, dans l'ordre donné.
+     */
+    public BulkExportManifest exportUploads(String[] uploadIds) throws IOException, CsvException {
+        if (uploadIds == null || uploadIds.length == 0) {
+            throw new IllegalArgumentException("Au moins un envoi est attendu");
+        }
+        // Tous les envois sont vérifiés avant d'en terminer un seul
+        List<UploadSessionResponse> uploads = new ArrayList<>();
+        for (String uploadId : uploadIds) {
+            uploads.add(chunkedUploadService.checkReceived(uploadId));
+        }
+
+        List<ExportFile> inputs = new ArrayList<>();
+        try {
+            for (UploadSessionResponse upload : uploads) {
+                inputs.add(new ExportFile(upload.getFileName(), upload.getEntityType(),
+                        chunkedUploadService.completeForExport(upload.getUploadId())));
+            }
+            return export(inputs);
+        } finally {
+            inputs.forEach(input -> ingestionFileStore.delete(input.path().toString()));
+        }
+    }
+
+    private BulkExportManifest export(List<ExportFile> inputs) throws IOException, CsvException {
+        String exportId = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        Path directory = Paths.get(outputDir).resolve(exportId).toAbsolutePath();
+
+        BulkExportManifest manifest = new BulkExportManifest();
+        manifest.setExportId(exportId);
+        manifest.setCreatedAt(LocalDateTime.now());
+        manifest.setDirectory(directory.toString());
+
+        try (Neo4jImportWriter writer = new Neo4jImportWriter(directory)) {
+            // Première lecture : dernière ligne de chaque évaluation et activité, seule écrite ensuite
+            for (ExportFile input : inputs) {
+                String entityType = input.entityType();
+                ingestionFileReader.read(input.path(), input.fileName(), entityType,
+                        null, record -> writer.scan(entityType, record));
+            }
+            for (ExportFile input : inputs) {
+                String entityType = input.entityType();
+                long records = ingestionFileReader.read(input.path(), input.fileName(), entityType,
+                        null, record -> writer.accept(entityType, record));
+                manifest.getInputs().add(new BulkExportManifest.Input(input.fileName(), entityType, records));
+            }
+            writer.finish(manifest);
+        }
+
+        objectMapper.copy()
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(directory.resolve("manifest.json").toFile(), manifest);
+        return manifest;
+    }
+
+    private record ExportFile(String fileName, String entityType, Path path) {
+    }
+}
@@ -1,77 +1,56 @@
 package ens.edupath.ingestion.service;
 
 import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvException;
+import com.opencsv.exceptions.CsvValidationException;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 @Service
 public class CSVParserService {
 
-    public List<Map<String, String>> parseCSV(MultipartFile file) throws IOException, CsvException {
-        List<Map<String, String>> records = new ArrayList<>();
+    /**
+     * Lit le CSV ligne par ligne et transmet chaque enregistrement au handler dès sa lecture.
+     * Seule la ligne courante est gardée en mémoire, quelle que soit la taille du fichier.
+     * Les headers sont résolus une seule fois en {@link RecordSchema} pour le type d'entité.
+     *
+     * @return le nombre d'enregistrements transmis au handler
+     */
+    public long streamCSV(InputStream inputStream, String entityType, Consumer<IngestionRecord> handler)
+            throws IOException, CsvValidationException {
+        long count = 0;
 
         try (CSVReader reader = new CSVReader(
-                new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
-            
-            List<String[]> allRows = reader.readAll();
-            
-            if (allRows.isEmpty()) {
-                return records;
-            }
+                new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
 
             // Première ligne = headers
-            String[] headers = allRows.get(0);
-            
-            // Normaliser les headers (trim, lowercase, replace spaces)
-            String[] normalizedHeaders = normalizeHeaders(headers);
+            String[] headers = reader.readNext();
+            if (headers == null) {
+                return count;
+            }
 
-            // Lignes de données
-            for (int i = 1; i < allRows.size(); i++) {
-                String[] row = allRows.get(i);
-                Map<String, String> record = createRecord(normalizedHeaders, row);
-                if (!record.isEmpty()) {
-                    records.add(record);
+            // Normaliser les headers (trim, lowercase, replace spaces)
+            String[] normalizedHeaders = new String[headers.length];
+            for (int i = 0; i < headers.length; i++) {
+                normalizedHeaders[i] = RecordSchema.normalizeHeader(headers[i]);
+            }
+            RecordSchema schema = RecordSchema.compile(entityType, normalizedHeaders);
+
+            // Lignes de données : le tableau lu par le CSVReader sert directement d'enregistrement
+            String[] row;
+            while ((row = reader.readNext()) != null) {
+                IngestionRecord record = IngestionRecord.of(schema, reader.getLinesRead(), row);
+                if (record != null) {
+                    handler.accept(record);
+                    count++;
                 }
             }
         }
 
-        return records;
-    }
-
-    private String[] normalizeHeaders(String[] headers) {
-        String[] normalized = new String[headers.length];
-        for (int i = 0; i < headers.length; i++) {
-            normalized[i] = headers[i].trim()
-                    .toLowerCase()
-                    .replaceAll("\\s+", "_")
-                    .replaceAll("[^a-z0-9_]", "");
-        }
-        return normalized;
-    }
-
-    private Map<String, String> createRecord(String[] headers, String[] values) {
-        Map<String, String> record = new java.util.HashMap<>();
-        int maxLength = Math.min(headers.length, values.length);
-        
-        for (int i = 0; i < maxLength; i++) {
-            String key = headers[i];
-            String value = values[i] != null ? values[i].trim() : "";
-            if (!key.isEmpty() && !value.isEmpty()) {
-                record.put(key, value);
-            }
-        }
-        
-        return record;
+        return count;
     }
 }
-
-
@@ -0,0 +1,273 @@
+package ens.edupath.ingestion.service;
+
+import ens.edupath.ingestion.dto.IngestionResponse;
+import ens.edupath.ingestion.dto.UploadSessionResponse;
+import ens.edupath.ingestion.dto.ValidationResult;
+import ens.edupath.ingestion.model.jpa.UploadSession;
+import ens.edupath.ingestion.repository.jpa.UploadSessionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Envoi de fichiers par morceaux : ouverture, ajout de morceaux à un offset donné, finalisation.
+ * Chaque morceau est écrit directement dans le fichier d'accumulation avec un tampon fixe et
+ * vérifié par son SHA-256 ; un morceau refusé ou interrompu est retiré et l'offset n'avance pas,
+ * si bien qu'un client peut toujours reprendre à receivedBytes.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final FileValidationService fileValidationService;
+    private final IngestionFileStore ingestionFileStore;
+    private final DataIngestionService dataIngestionService;
+
+    // Un seul morceau à la fois par envoi dans cette instance
+    private final Set<String> activeUploads = ConcurrentHashMap.newKeySet();
+
+    @Value("${file.upload.chunked.spool-dir:./temp/uploads/chunks}")
+    private String spoolDir;
+
+    @Value("${file.upload.chunked.max-chunk-size:64MB}")
+    private DataSize maxChunkSize;
+
+    @Value("${file.upload.chunked.expire-after:PT24H}")
+    private Duration expireAfter;
+
+    public ChunkedUploadService(UploadSessionRepository uploadSessionRepository,
+                                FileValidationService fileValidationService,
+                                IngestionFileStore ingestionFileStore,
+                                DataIngestionService dataIngestionService) {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.fileValidationService = fileValidationService;
+        this.ingestionFileStore = ingestionFileStore;
+        this.dataIngestionService = dataIngestionService;
+    }
+
+    public UploadSessionResponse initiate(String fileName, String entityType, Long expectedSize) throws IOException {
+        ValidationResult validation = fileValidationService.validateChunkedUpload(fileName, expectedSize, entityType);
+        if (!validation.isValid()) {
+            throw new IllegalArgumentException(String.join("; ", validation.getErrors()));
+        }
+
+        String uploadId = UUID.randomUUID().toString();
+        Path directory = Paths.get(spoolDir);
+        Files.createDirectories(directory);
+        Path spool = Files.createFile(directory.resolve(uploadId + ".part"));
+
+        UploadSession session = new UploadSession();
+        session.setUploadId(uploadId);
+        session.setFileName(fileName);
+        session.setEntityType(entityType);
+        session.setExpectedSize(expectedSize);
+        session.setReceivedBytes(0L);
+        session.setSpoolPath(spool.toString());
+        session.setStatus(UploadSession.Status.OPEN);
+        return toResponse(uploadSessionRepository.save(session), "Envoi ouvert");
+    }
+
+    public UploadSessionResponse status(String uploadId) {
+        return toResponse(findSession(uploadId), null);
+    }
+
+    /**
+     * Ajoute un morceau à l'offset donné, qui doit être égal au nombre d'octets déjà reçus.
+     *
+     * @param checksum SHA-256 (hexadécimal) du morceau
+     */
+    public UploadSessionResponse appendChunk(String uploadId, long offset, String checksum,
+                                             InputStream body) throws IOException {
+        UploadSession session = findOpenSession(uploadId);
+        if (checksum == null || checksum.isBlank()) {
+            throw new IllegalArgumentException("Checksum SHA-256 du morceau manquant");
+        }
+        if (!activeUploads.add(uploadId)) {
+            throw new IllegalStateException("Un morceau est déjà en cours de réception pour l'envoi " + uploadId);
+        }
+
+        try {
+            if (offset != session.getReceivedBytes()) {
+                throw new IllegalStateException("Offset " + offset + " inattendu, prochain offset: " + session.getReceivedBytes());
+            }
+            long maxTotal = session.getExpectedSize() != null
+                    ? session.getExpectedSize()
+                    : fileValidationService.getMaxChunkedFileSize();
+
+            MessageDigest digest = IngestionFileStore.newDigest();
+            long written = 0;
+            try (FileChannel channel = FileChannel.open(Paths.get(session.getSpoolPath()), StandardOpenOption.WRITE)) {
+                channel.truncate(offset); // Reste d'un morceau interrompu
+                channel.position(offset);
+
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    written += read;
+                    if (written > maxChunkSize.toBytes() || offset + written > maxTotal) {
+                        channel.truncate(offset);
+                        throw new IllegalArgumentException(written > maxChunkSize.toBytes()
+                                ? "Le morceau dépasse la taille maximale de " + maxChunkSize
+                                : "Le fichier dépasse la taille annoncée ou autorisée (" + maxTotal + " octets)");
+                    }
+                    digest.update(buffer, 0, read);
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                }
+
+                if (!HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(checksum.trim())) {
+                    channel.truncate(offset);
+                    throw new IllegalArgumentException("Checksum SHA-256 du morceau invalide, le morceau doit être renvoyé");
+                }
+                // Le morceau est sur disque avant que l'offset n'avance
+                channel.force(false);
+            }
+
+            if (written == 0) {
+                throw new IllegalArgumentException("Morceau vide");
+            }
+            session.setReceivedBytes(offset + written);
+            return toResponse(uploadSessionRepository.save(session), "Morceau reçu");
+        } finally {
+            activeUploads.remove(uploadId);
+        }
+    }
+
+    /**
+     * Termine l'envoi et lance l'ingestion du fichier reçu.
+     *
+     * @param sha256 SHA-256 attendu du fichier complet, ou null
+     * @param dataset jeu de données pour une ingestion en delta, ou null
+     * @param flagRemoved marquer dans le graphe les lignes du dernier envoi absentes de ce fichier
+     */
+    public IngestionResponse complete(String uploadId, String sha256, boolean async, boolean force,
+                                      String dataset, boolean flagRemoved) throws IOException {
+        UploadSession session = findOpenSession(uploadId);
+        checkReceived(session);
+
+        IngestionFileStore.StoredFile storedFile = ingestionFileStore.adopt(Paths.get(session.getSpoolPath()));
+        if (sha256 != null && !sha256.isBlank() && !storedFile.sha256().equalsIgnoreCase(sha256.trim())) {
+            throw new IllegalArgumentException("Le SHA-256 du fichier reçu ne correspond pas à celui annoncé");
+        }
+
+        // Le fichier d'accumulation devient la copie conservée par le log d'ingestion
+        session.setStatus(UploadSession.Status.COMPLETED);
+        session = uploadSessionRepository.save(session);
+
+        IngestionResponse response = dataIngestionService.processUploadedFile(
+                session.getFileName(), session.getEntityType(), storedFile, async, force, dataset, flagRemoved);
+        session.setLogId(response.getLogId());
+        uploadSessionRepository.save(session);
+        return response;
+    }
+
+    /**
+     * Termine l'envoi sans lancer d'ingestion, pour l'export hors ligne.
+     *
+     * @return le fichier reçu, à supprimer par l'appelant après usage
+     */
+    public Path completeForExport(String uploadId) {
+        UploadSession session = findOpenSession(uploadId);
+        checkReceived(session);
+        session.setStatus(UploadSession.Status.COMPLETED);
+        uploadSessionRepository.save(session);
+        return Paths.get(session.getSpoolPath());
+    }
+
+    /**
+     * Vérifie qu'un envoi est ouvert et entièrement reçu, sans le terminer.
+     */
+    public UploadSessionResponse checkReceived(String uploadId) {
+        UploadSession session = findOpenSession(uploadId);
+        checkReceived(session);
+        return toResponse(session, null);
+    }
+
+    private void checkReceived(UploadSession session) {
+        if (activeUploads.contains(session.getUploadId())) {
+            throw new IllegalStateException("Un morceau est encore en cours de réception pour l'envoi " + session.getUploadId());
+        }
+        if (session.getReceivedBytes() == 0) {
+            throw new IllegalArgumentException("Aucun morceau reçu");
+        }
+        if (session.getExpectedSize() != null && !session.getExpectedSize().equals(session.getReceivedBytes())) {
+            throw new IllegalStateException("Envoi incomplet: " + session.getReceivedBytes() + " octets reçus sur "
+                    + session.getExpectedSize());
+        }
+
+        ValidationResult validation = fileValidationService.validateChunkedUpload(
+                session.getFileName(), session.getReceivedBytes(), session.getEntityType());
+        if (!validation.isValid()) {
+            throw new IllegalArgumentException(String.join("; ", validation.getErrors()));
+        }
+    }
+
+    /**
+     * Supprime les envois ouverts sans nouveau morceau depuis file.upload.chunked.expire-after.
+     */
+    @Scheduled(fixedDelayString = "${file.upload.chunked.cleanup-interval-ms:3600000}")
+    public void expireStaleUploads() {
+        try {
+            LocalDateTime threshold = LocalDateTime.now().minus(expireAfter);
+            for (UploadSession session : uploadSessionRepository.findByStatusAndUpdatedAtBefore(UploadSession.Status.OPEN, threshold)) {
+                if (activeUploads.contains(session.getUploadId())) {
+                    continue;
+                }
+                ingestionFileStore.delete(session.getSpoolPath());
+                session.setStatus(UploadSession.Status.EXPIRED);
+                uploadSessionRepository.save(session);
+            }
+        } catch (Exception e) {
+            System.err.println("Erreur lors du nettoyage des envois par morceaux: " + e.getMessage());
+        }
+    }
+
+    private UploadSession findSession(String uploadId) {
+        return uploadSessionRepository.findByUploadId(uploadId)
+                .orElseThrow(() -> new NoSuchElementException("Envoi introuvable: " + uploadId));
+    }
+
+    private UploadSession findOpenSession(String uploadId) {
+        UploadSession session = findSession(uploadId);
+        if (session.getStatus() != UploadSession.Status.OPEN) {
+            throw new IllegalStateException("L'envoi " + uploadId + " n'est plus ouvert (statut " + session.getStatus() + ")");
+        }
+        return session;
+    }
+
+    private UploadSessionResponse toResponse(UploadSession session, String message) {
+        UploadSessionResponse response = new UploadSessionResponse();
+        response.setUploadId(session.getUploadId());
+        response.setFileName(session.getFileName());
+        response.setEntityType(session.getEntityType());
+        response.setStatus(session.getStatus().name());
+        response.setExpectedSize(session.getExpectedSize());
+        response.setReceivedBytes(session.getReceivedBytes());
+        response.setMaxChunkSize(maxChunkSize.toBytes());
+        response.setLogId(session.getLogId());
+        response.setMessage(message);
+        return response;
+    }
+}
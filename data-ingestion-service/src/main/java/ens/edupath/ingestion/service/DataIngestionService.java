@@ -3,157 +3,725 @@ package ens.edupath.ingestion.service;
 import com.opencsv.exceptions.CsvException;
 import ens.edupath.ingestion.dto.IngestionResponse;
 import ens.edupath.ingestion.dto.ValidationResult;
+import ens.edupath.ingestion.model.jpa.IngestionChunk;
 import ens.edupath.ingestion.model.jpa.IngestionLog;
-import ens.edupath.ingestion.model.neo4j.Activity;
-import ens.edupath.ingestion.model.neo4j.Evaluation;
-import ens.edupath.ingestion.model.neo4j.Module;
-import ens.edupath.ingestion.model.neo4j.Student;
 import ens.edupath.ingestion.repository.jpa.IngestionLogRepository;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 @Service
 public class DataIngestionService {
 
     private final FileValidationService fileValidationService;
-    private final CSVParserService csvParserService;
-    private final ExcelParserService excelParserService;
+    private final IngestionFileReader ingestionFileReader;
     private final GraphService graphService;
+    private final GraphBatchWriter graphBatchWriter;
     private final IngestionLogRepository ingestionLogRepository;
     private final NotificationService notificationService;
+    private final IngestionFileStore ingestionFileStore;
+    private final IngestionJobService ingestionJobService;
+    private final IngestionProgressRegistry progressRegistry;
+    private final RejectedRowSink rejectedRowSink;
+    private final IngestionBundleService ingestionBundleService;
+    private final IngestionChunkService ingestionChunkService;
+    private final DatasetRowIndex datasetRowIndex;
+    private final NoteForwardingService noteForwardingService;
+    private final UserForwardingService userForwardingService;
+
+    // Logs en cours de traitement dans cette instance
+    private final Set<Long> runningLogs = ConcurrentHashMap.newKeySet();
+
+    @Value("${processing.parallel.enabled:false}")
+    private boolean parallelEnabled;
+
+    @Value("${processing.parallel.lanes:4}")
+    private int parallelLanes;
+
+    @Value("${processing.parallel.queue-capacity:8}")
+    private int laneQueueCapacity;
+
+    @Value("${processing.commit-interval:1000}")
+    private int commitInterval;
+
+    @Value("${processing.resume.stale-after:PT5M}")
+    private Duration resumeStaleAfter;
 
     @Autowired
     public DataIngestionService(FileValidationService fileValidationService,
-                               CSVParserService csvParserService,
-                               ExcelParserService excelParserService,
+                               IngestionFileReader ingestionFileReader,
                                GraphService graphService,
+                               GraphBatchWriter graphBatchWriter,
                                IngestionLogRepository ingestionLogRepository,
-                               NotificationService notificationService) {
+                               NotificationService notificationService,
+                               IngestionFileStore ingestionFileStore,
+                               IngestionJobService ingestionJobService,
+                               IngestionProgressRegistry progressRegistry,
+                               RejectedRowSink rejectedRowSink,
+                               IngestionBundleService ingestionBundleService,
+                               IngestionChunkService ingestionChunkService,
+                               DatasetRowIndex datasetRowIndex,
+                               NoteForwardingService noteForwardingService,
+                               UserForwardingService userForwardingService) {
         this.fileValidationService = fileValidationService;
-        this.csvParserService = csvParserService;
-        this.excelParserService = excelParserService;
+        this.ingestionFileReader = ingestionFileReader;
         this.graphService = graphService;
+        this.graphBatchWriter = graphBatchWriter;
         this.ingestionLogRepository = ingestionLogRepository;
         this.notificationService = notificationService;
+        this.ingestionFileStore = ingestionFileStore;
+        this.ingestionJobService = ingestionJobService;
+        this.progressRegistry = progressRegistry;
+        this.rejectedRowSink = rejectedRowSink;
+        this.ingestionBundleService = ingestionBundleService;
+        this.ingestionChunkService = ingestionChunkService;
+        this.datasetRowIndex = datasetRowIndex;
+        this.noteForwardingService = noteForwardingService;
+        this.userForwardingService = userForwardingService;
     }
 
-    @Transactional
-    public IngestionResponse processFile(MultipartFile file, String entityType, boolean async) {
+    // Une ingestion réussie ou en cours de ce contenu suffit : le renvoi est ignoré
+    private static final Set<IngestionLog.Status> INGESTED_STATUSES = EnumSet.of(
+            IngestionLog.Status.PENDING, IngestionLog.Status.PROCESSING,
+            IngestionLog.Status.COMPLETED, IngestionLog.Status.PARTIALLY_COMPLETED);
+
+    /**
+     * @param force retraiter le fichier même si un fichier identique (même SHA-256) a déjà été ingéré
+     * @param dataset jeu de données renvoyé régulièrement : seules les lignes nouvelles ou modifiées
+     *                depuis son dernier envoi sont écrites (null pour une ingestion complète)
+     * @param flagRemoved marquer dans le graphe les lignes du dernier envoi absentes de ce fichier
+     */
+    public IngestionResponse processFile(MultipartFile file, String entityType, boolean async, boolean force,
+                                         String dataset, boolean flagRemoved) {
         // Créer le log
         IngestionLog log = createIngestionLog(file, entityType);
         log.setStatus(IngestionLog.Status.PROCESSING);
+        if (dataset != null && !dataset.isBlank()) {
+            log.setDataset(dataset.trim());
+            log.setFlagRemoved(flagRemoved);
+        }
+        log = ingestionLogRepository.save(log);
+
+        // Validation
+        ValidationResult validation = fileValidationService.validateFile(file, entityType);
+        if (!validation.isValid()) {
+            log.setStatus(IngestionLog.Status.FAILED);
+            log.setErrorMessage(String.join("; ", validation.getErrors()));
+            log = ingestionLogRepository.save(log);
+            return createResponse(log, "Erreur de validation");
+        }
+
+        // Conserver une copie du fichier pour pouvoir reprendre le traitement
+        try {
+            IngestionFileStore.StoredFile storedFile = ingestionFileStore.store(file);
+            log.setContentHash(storedFile.sha256());
+            log.setStoredFilePath(storedFile.path().toString());
+            log.setCheckpointOffset(0);
+            log = ingestionLogRepository.save(log);
+        } catch (IOException e) {
+            log.setStatus(IngestionLog.Status.FAILED);
+            log.setErrorMessage(e.getMessage());
+            log = ingestionLogRepository.save(log);
+            return createResponse(log, "Erreur: " + e.getMessage());
+        }
+
+        return startIngestion(log, async, force);
+    }
+
+    /**
+     * Ingestion d'un fichier déjà sur disque, reçu par morceaux et contrôlé par {@link ChunkedUploadService}.
+     */
+    public IngestionResponse processUploadedFile(String fileName, String entityType,
+                                                 IngestionFileStore.StoredFile storedFile,
+                                                 boolean async, boolean force,
+                                                 String dataset, boolean flagRemoved) {
+        IngestionLog log = createIngestionLog(fileName, entityType);
+        log.setStatus(IngestionLog.Status.PROCESSING);
+        if (dataset != null && !dataset.isBlank()) {
+            log.setDataset(dataset.trim());
+            log.setFlagRemoved(flagRemoved);
+        }
+        log.setContentHash(storedFile.sha256());
+        log.setStoredFilePath(storedFile.path().toString());
+        log.setCheckpointOffset(0);
         log = ingestionLogRepository.save(log);
+        return startIngestion(log, async, force);
+    }
+
+    /**
+     * Suite commune une fois le fichier conservé : doublon, puis traitement ou mise en file.
+     * Seuls les logs de premier niveau servent de référence : un sous-log porte l'empreinte de son classeur.
+     */
+    private IngestionResponse startIngestion(IngestionLog log, boolean async, boolean force) {
+        String datasetConflict = datasetConflict(log);
+        if (datasetConflict != null) {
+            ingestionFileStore.delete(log.getStoredFilePath());
+            log.setStoredFilePath(null);
+            log.setStatus(IngestionLog.Status.FAILED);
+            log.setErrorMessage(datasetConflict);
+            log = ingestionLogRepository.save(log);
+            return createResponse(log, "Erreur de validation");
+        }
+
+        if (!force) {
+            Optional<IngestionLog> previous = ingestionLogRepository
+                    .findFirstByContentHashAndEntityTypeAndStatusInAndIdNotAndParentLogIdIsNullOrderByIdDesc(
+                            log.getContentHash(), log.getEntityType(), INGESTED_STATUSES, log.getId());
+            if (previous.isPresent()) {
+                return skipDuplicate(log, previous.get());
+            }
+        }
 
         if (async) {
-            processFileAsync(file, entityType, log);
-            return createResponse(log, "Traitement asynchrone démarré");
+            // Le fichier est déjà sur disque : un worker réclamera le job, même après un redémarrage
+            log.setStatus(IngestionLog.Status.PENDING);
+            log = ingestionLogRepository.save(log);
+            ingestionJobService.enqueue(log.getId());
+            return createResponse(log, "Traitement asynchrone en file d'attente");
         } else {
-            return processFileSync(file, entityType, log);
+            return processStoredFile(log);
+        }
+    }
+
+    private String datasetConflict(IngestionLog log) {
+        return log.getDataset() != null
+                ? datasetRowIndex.checkEntityType(log.getDataset(), log.getEntityType())
+                : null;
+    }
+
+    /**
+     * Termine le log sans traitement : le contenu est déjà dans le graphe (ou en cours d'écriture).
+     */
+    private IngestionResponse skipDuplicate(IngestionLog log, IngestionLog previous) {
+        Long originalId = previous.getDuplicateOfLogId() != null ? previous.getDuplicateOfLogId() : previous.getId();
+        ingestionFileStore.delete(log.getStoredFilePath());
+        log.setStoredFilePath(null);
+        log.setDuplicateOfLogId(originalId);
+        log.setStatus(IngestionLog.Status.COMPLETED);
+        log.setTotalRecords(0);
+        log.setSuccessfulRecords(0);
+        log.setFailedRecords(0);
+        log = ingestionLogRepository.save(log);
+        return createResponse(log, "Fichier déjà ingéré (ingestion " + originalId
+                + "), utiliser force=true pour le retraiter");
+    }
+
+    /**
+     * Reprend une ingestion échouée ou interrompue à partir de son dernier point de contrôle.
+     * Si la copie du fichier n'existe plus, le fichier renvoyé doit avoir la même empreinte SHA-256.
+     */
+    public IngestionResponse resumeIngestion(Long logId, MultipartFile file) throws IOException {
+        IngestionLog log = ingestionLogRepository.findById(logId)
+                .orElseThrow(() -> new IllegalArgumentException("Log d'ingestion introuvable: " + logId));
+
+        if (!isResumable(log)) {
+            throw new IllegalStateException("L'ingestion " + logId + " ne peut pas être reprise (statut " + log.getStatus() + ")");
+        }
+
+        if (!ingestionFileStore.exists(log.getStoredFilePath())) {
+            if (file == null || file.isEmpty()) {
+                throw new IllegalArgumentException("Le fichier d'origine n'est plus disponible, il doit être renvoyé");
+            }
+            IngestionFileStore.StoredFile storedFile = ingestionFileStore.store(file);
+            if (!log.getContentHash().equals(storedFile.sha256())) {
+                ingestionFileStore.delete(storedFile.path().toString());
+                throw new IllegalArgumentException("Le fichier renvoyé ne correspond pas au fichier d'origine");
+            }
+            log.setStoredFilePath(storedFile.path().toString());
         }
+
+        log.setStatus(IngestionLog.Status.PROCESSING);
+        log.setErrorMessage(null);
+        log = ingestionLogRepository.save(log);
+        return processStoredFile(log);
     }
 
-    @Async("taskExecutor")
-    public CompletableFuture<IngestionResponse> processFileAsync(MultipartFile file, String entityType, IngestionLog log) {
-        IngestionResponse response = processFileSync(file, entityType, log);
-        return CompletableFuture.completedFuture(response);
+    /**
+     * Flux SSE de la progression d'une ingestion.
+     */
+    public SseEmitter watchProgress(Long logId) {
+        IngestionLog log = ingestionLogRepository.findById(logId)
+                .orElseThrow(() -> new IllegalArgumentException("Log d'ingestion introuvable: " + logId));
+        return progressRegistry.subscribe(log);
     }
 
-    @Transactional
-    public IngestionResponse processFileSync(MultipartFile file, String entityType, IngestionLog log) {
+    private boolean isResumable(IngestionLog log) {
+        // Un log parent n'a pas de traitement propre : ce sont ses sous-logs qui se reprennent
+        if (log.getContentHash() == null || log.getSubJobCount() != null || runningLogs.contains(log.getId())
+                || ingestionJobService.hasActiveJob(log.getId())) {
+            return false;
+        }
+        if (log.getStatus() == IngestionLog.Status.FAILED) {
+            return true;
+        }
+        // Un log resté PROCESSING sans activité récente a été interrompu (redémarrage du pod...)
+        LocalDateTime lastActivity = log.getUpdatedAt() != null ? log.getUpdatedAt() : log.getCreatedAt();
+        return log.getStatus() == IngestionLog.Status.PROCESSING
+                && lastActivity != null
+                && lastActivity.isBefore(LocalDateTime.now().minus(resumeStaleAfter));
+    }
+
+    /**
+     * Traite le fichier conservé pour ce log en reprenant après checkpointOffset.
+     * Les écritures sont validées par lots et le point de contrôle est enregistré toutes les
+     * processing.commit-interval lignes, sans transaction couvrant tout le fichier.
+     */
+    public IngestionResponse processStoredFile(IngestionLog log) {
+        if (log.getSubJobCount() != null) {
+            // Job réclamé à nouveau après le découpage : ses sous-jobs ou morceaux suivent leur cours
+            return createResponse(log, log.getSubJobCount() + " sous-jobs déjà en file d'attente");
+        }
+
+        // Classeur multi-feuilles ou archive ZIP : un sous-job par feuille ou par fichier.
+        // En asynchrone, l'extraction se fait ici sur le worker qui a réclamé le job, pas sur le thread HTTP
         try {
-            // Validation
-            ValidationResult validation = fileValidationService.validateFile(file, entityType);
-            if (!validation.isValid()) {
-                log.setStatus(IngestionLog.Status.FAILED);
-                log.setErrorMessage(String.join("; ", validation.getErrors()));
-                log = ingestionLogRepository.save(log);
-                return createResponse(log, "Erreur de validation");
+            List<IngestionLog> subLogs = ingestionBundleService.split(log);
+            if (!subLogs.isEmpty()) {
+                log = ingestionLogRepository.findById(log.getId()).orElse(log);
+                IngestionResponse response = createResponse(log,
+                        subLogs.size() + " sous-jobs en file d'attente, traités en parallèle");
+                response.setSubLogIds(subLogs.stream().map(IngestionLog::getId).toList());
+                return response;
             }
+        } catch (IOException e) {
+            ingestionFileStore.delete(log.getStoredFilePath());
+            log.setStatus(IngestionLog.Status.FAILED);
+            log.setErrorMessage(e.getMessage());
+            log = ingestionLogRepository.save(log);
+            return createResponse(log, "Erreur: " + e.getMessage());
+        }
 
-            // Parsing
-            List<Map<String, String>> records = parseFile(file);
+        // Vérifié à nouveau ici pour les sous-logs et pour un envoi concurrent sous le même nom
+        String datasetConflict = datasetConflict(log);
+        if (datasetConflict != null) {
+            log.setStatus(IngestionLog.Status.FAILED);
+            log.setErrorMessage(datasetConflict);
+            log = ingestionLogRepository.save(log);
+            return createResponse(log, "Erreur de validation");
+        }
 
-            if (records.isEmpty()) {
+        if (ingestionChunkService.shouldDistribute(log)) {
+            try {
+                int chunks = ingestionChunkService.distribute(log);
+                if (chunks > 0) {
+                    log = ingestionLogRepository.findById(log.getId()).orElse(log);
+                    return createResponse(log, chunks + " morceaux distribués entre les instances");
+                }
+            } catch (IOException e) {
                 log.setStatus(IngestionLog.Status.FAILED);
-                log.setErrorMessage("Aucune donnée trouvée dans le fichier");
+                log.setErrorMessage(e.getMessage());
                 log = ingestionLogRepository.save(log);
-                return createResponse(log, "Fichier vide");
+                return createResponse(log, "Erreur: " + e.getMessage());
             }
+        }
 
-            log.setTotalRecords(records.size());
-            int successful = 0;
-            int failed = 0;
+        if (!runningLogs.add(log.getId())) {
+            return createResponse(log, "Traitement déjà en cours");
+        }
 
-            // Traitement des données
-            for (Map<String, String> record : records) {
+        IngestionRun run = null;
+        try {
+            // Parsing et traitement en flux : les lignes sont écrites par lots dès leur lecture
+            Path path = Paths.get(log.getStoredFilePath());
+            run = new IngestionRun(log, progressRegistry.start(log, Files.size(path)), rejectedRowSink.open(log),
+                    openForwarder(log.getEntityType(), "l'ingestion " + log.getId()));
+            try {
+                if (parallelEnabled) {
+                    processRecordsInParallel(path, run);
+                } else {
+                    processRecords(path, run);
+                }
+            } finally {
+                // Dernier lot transmis, puis rejets en file écrits
                 try {
-                    processRecord(record, entityType);
-                    successful++;
-                } catch (Exception e) {
-                    failed++;
-                    // Logger l'erreur mais continuer
-                    System.err.println("Erreur lors du traitement d'un enregistrement: " + e.getMessage());
+                    run.forwarder.close();
+                    log.setForwardedRecords(run.previousForwarded + (int) run.forwarder.getForwarded());
+                    log.setForwardFailedRecords(run.previousForwardFailed + (int) run.forwarder.getFailed());
+                } finally {
+                    run.rejects.close();
                 }
             }
+            recordRejectsFile(run);
+
+            if (run.total == 0) {
+                log.setStatus(IngestionLog.Status.FAILED);
+                log.setErrorMessage("Aucune donnée trouvée dans le fichier");
+                log = ingestionLogRepository.save(log);
+                return createResponse(log, "Fichier vide");
+            }
 
             // Mettre à jour le log
-            log.setSuccessfulRecords(successful);
-            log.setFailedRecords(failed);
+            log.setTotalRecords(run.total);
+            log.setSuccessfulRecords(run.successful.intValue());
+            log.setFailedRecords(run.failed.intValue());
+            log.setCheckpointOffset(run.total);
+            log.setCheckpointAt(LocalDateTime.now());
+            log.setColumnErrors(run.columnErrors());
+            if (log.getDataset() != null) {
+                log.setUnchangedRecords(run.unchanged.intValue());
+                log.setRemovedRecords(detectRemovedRows(log));
+            }
             
-            if (failed == 0) {
+            // Lignes écrites dans le graphe mais non transmises : ingestion incomplète côté services
+            if (log.getFailedRecords() == 0 && log.getForwardFailedRecords() == 0) {
                 log.setStatus(IngestionLog.Status.COMPLETED);
-            } else if (successful > 0) {
+            } else if (log.getSuccessfulRecords() > 0) {
                 log.setStatus(IngestionLog.Status.PARTIALLY_COMPLETED);
             } else {
                 log.setStatus(IngestionLog.Status.FAILED);
             }
             
             log = ingestionLogRepository.save(log);
+            // Les fichiers d'un sous-log sont supprimés à la fin du log parent (feuilles d'un même classeur)
+            if (log.getStatus() != IngestionLog.Status.FAILED && log.getParentLogId() == null) {
+                ingestionFileStore.delete(log.getStoredFilePath());
+            }
 
             // Envoyer une notification
             notificationService.sendIngestionNotification(log);
 
-            return createResponse(log, "Traitement terminé");
+            return createResponse(log, run.resumeFrom > 0
+                    ? "Traitement terminé (repris à la ligne " + run.resumeFrom + ")"
+                    : "Traitement terminé");
 
         } catch (Exception e) {
+            // Le point de contrôle déjà enregistré reste valable pour une reprise
+            recordRejectsFile(run);
             log.setStatus(IngestionLog.Status.FAILED);
             log.setErrorMessage(e.getMessage());
             log = ingestionLogRepository.save(log);
             return createResponse(log, "Erreur: " + e.getMessage());
+        } finally {
+            progressRegistry.finish(log);
+            runningLogs.remove(log.getId());
+            if (log.getParentLogId() != null) {
+                finishSubLog(log);
+            }
         }
     }
 
-    private List<Map<String, String>> parseFile(MultipartFile file) throws IOException, CsvException {
-        String filename = file.getOriginalFilename();
-        if (filename == null) {
-            throw new IOException("Nom de fichier invalide");
+    private void finishSubLog(IngestionLog log) {
+        try {
+            ingestionBundleService.childFinished(log.getParentLogId());
+        } catch (Exception e) {
+            System.err.println("Erreur lors de la mise à jour du log parent " + log.getParentLogId() + ": " + e.getMessage());
         }
+    }
 
-        if (filename.endsWith(".csv")) {
-            return csvParserService.parseCSV(file);
-        } else if (filename.endsWith(".xlsx") || filename.endsWith(".xls")) {
-            return excelParserService.parseExcel(file);
-        } else {
-            throw new IOException("Format de fichier non supporté");
+    private void recordRejectsFile(IngestionRun run) {
+        if (run == null) {
+            return;
+        }
+        if (run.rejects.hasRejects()) {
+            run.log.setRejectsFilePath(run.rejects.getPath().toString());
+        }
+        long dropped = run.previousDroppedRejects + run.rejects.getDropped();
+        run.log.setDroppedRejects(dropped > 0 ? (int) dropped : null);
+    }
+
+    /**
+     * Fichier des lignes rejetées d'une ingestion (CSV gzip), s'il y en a eu.
+     */
+    public Path getRejectsFile(Long logId) {
+        IngestionLog log = ingestionLogRepository.findById(logId)
+                .orElseThrow(() -> new IllegalArgumentException("Log d'ingestion introuvable: " + logId));
+        if (log.getRejectsFilePath() == null || !Files.exists(Paths.get(log.getRejectsFilePath()))) {
+            throw new IllegalArgumentException("Aucune ligne rejetée pour l'ingestion " + logId);
+        }
+        return Paths.get(log.getRejectsFilePath());
+    }
+
+    private void processRecords(Path path, IngestionRun run) throws IOException, CsvException {
+        IngestionIdentityCache identityCache = graphBatchWriter.newIdentityCache();
+        List<IngestionRecord> batch = new ArrayList<>(graphBatchWriter.getBatchSize());
+        ingestionFileReader.read(path, run.log.getFileName(), run.log.getSheetName(), run.entityType, run.progress, record -> {
+            run.progress.recordParsed(++run.total);
+            run.schema = record.getSchema();
+            if (run.total <= run.resumeFrom) {
+                return; // Déjà traitée avant le point de contrôle
+            }
+            batch.add(record);
+            if (batch.size() >= graphBatchWriter.getBatchSize()) {
+                writeBatch(batch, run.entityType, identityCache, run);
+                checkpointIfDue(run);
+            }
+        });
+        writeBatch(batch, run.entityType, identityCache, run);
+    }
+
+    /**
+     * Répartit les lignes par hash de student_id sur plusieurs voies ordonnées.
+     * Les compteurs sont alimentés sans verrou par les voies ; avant chaque point de contrôle,
+     * la lecture attend que toutes les voies aient écrit les lignes déjà distribuées.
+     */
+    private void processRecordsInParallel(Path path, IngestionRun run) throws IOException, CsvException {
+        IngestionIdentityCache identityCache = graphBatchWriter.newIdentityCache();
+        try (PartitionedRecordProcessor processor = new PartitionedRecordProcessor(
+                parallelLanes, graphBatchWriter.getBatchSize(), laneQueueCapacity,
+                batch -> writeBatch(batch, run.entityType, identityCache, run))) {
+            ingestionFileReader.read(path, run.log.getFileName(), run.log.getSheetName(), run.entityType, run.progress, record -> {
+                run.progress.recordParsed(++run.total);
+                run.schema = record.getSchema();
+                if (run.total <= run.resumeFrom) {
+                    return; // Déjà traitée avant le point de contrôle
+                }
+                processor.accept(record);
+                if (run.total - run.lastCheckpoint >= commitInterval) {
+                    processor.awaitIdle();
+                    checkpoint(run);
+                }
+            });
+            processor.finish();
+        }
+    }
+
+    private void checkpointIfDue(IngestionRun run) {
+        if (run.total - run.lastCheckpoint >= commitInterval) {
+            checkpoint(run);
+        }
+    }
+
+    /**
+     * Enregistre la progression : toutes les lignes avant checkpointOffset sont écrites dans le graphe.
+     */
+    private void checkpoint(IngestionRun run) {
+        IngestionLog log = run.log;
+        log.setCheckpointOffset(run.total);
+        log.setCheckpointAt(LocalDateTime.now());
+        log.setTotalRecords(run.total);
+        log.setSuccessfulRecords(run.successful.intValue());
+        log.setFailedRecords(run.failed.intValue());
+        log.setColumnErrors(run.columnErrors());
+        if (log.getDataset() != null) {
+            log.setUnchangedRecords(run.unchanged.intValue());
+        }
+        ingestionLogRepository.save(log);
+        run.lastCheckpoint = run.total;
+    }
+
+    private void writeBatch(List<IngestionRecord> batch, String entityType,
+                            IngestionIdentityCache identityCache, IngestionRun run) {
+        String dataset = run.log.getDataset();
+        if (dataset == null || batch.isEmpty()) {
+            writeBatch(batch, entityType, identityCache, run.successful, run.failed, run.rejects, run.forwarder);
+            return;
+        }
+
+        // Delta : les lignes identiques au dernier envoi comptent comme réussies sans être réécrites
+        DatasetRowIndex.Delta delta = datasetRowIndex.compare(dataset, run.log.getId(), entityType, batch);
+        run.unchanged.add(delta.unchanged());
+        run.successful.add(delta.unchanged());
+        batch.clear();
+
+        List<IngestionRecord> changed = delta.changed();
+        Set<IngestionRecord> failedRecords = Collections.newSetFromMap(new IdentityHashMap<>());
+        failedRecords.addAll(writeBatch(new ArrayList<>(changed), entityType, identityCache,
+                run.successful, run.failed, run.rejects, run.forwarder));
+
+        List<DatasetRowIndex.Fingerprint> written = new ArrayList<>(changed.size());
+        for (IngestionRecord record : changed) {
+            DatasetRowIndex.Fingerprint fingerprint = delta.fingerprints().get(record);
+            if (fingerprint != null && !failedRecords.contains(record)) {
+                written.add(fingerprint);
+            }
+        }
+        if (Boolean.TRUE.equals(run.log.getFlagRemoved())) {
+            // Lignes réapparues après avoir été marquées comme disparues
+            graphService.clearRemoved(entityType, written.stream().map(DatasetRowIndex.Fingerprint::key).toList());
+        }
+        datasetRowIndex.record(dataset, entityType, run.log.getId(), written);
+    }
+
+    /**
+     * Lignes du jeu de données non vues par cette ingestion : comptées, et avec flagRemoved,
+     * marquées dans le graphe puis retirées de l'index.
+     */
+    private int detectRemovedRows(IngestionLog log) {
+        List<String> removed = datasetRowIndex.removedKeys(log.getDataset(), log.getEntityType(), log.getId());
+        if (Boolean.TRUE.equals(log.getFlagRemoved()) && !removed.isEmpty()) {
+            int batchSize = graphBatchWriter.getBatchSize();
+            for (int from = 0; from < removed.size(); from += batchSize) {
+                List<String> keys = removed.subList(from, Math.min(removed.size(), from + batchSize));
+                graphService.flagRemoved(log.getEntityType(), keys, log.getDataset());
+                datasetRowIndex.forget(log.getDataset(), keys);
+            }
+        }
+        return removed.size();
+    }
+
+    /**
+     * Les lignes écrites dans le graphe sont ensuite transmises au service qui les reçoit (notes, comptes).
+     *
+     * @return les lignes du lot en échec, déjà comptées et envoyées aux rejets
+     * @throws IllegalStateException si le graphe est indisponible (erreur passagère) : aucune ligne
+     *                               n'est rejetée, le traitement échoue et se reprend au point de contrôle
+     */
+    private List<IngestionRecord> writeBatch(List<IngestionRecord> batch, String entityType,
+                                             IngestionIdentityCache identityCache, LongAdder successful,
+                                             LongAdder failed, RejectedRowSink.Writer rejects,
+                                             BatchForwarder forwarder) {
+        if (batch.isEmpty()) {
+            return List.of();
+        }
+
+        List<IngestionRecord> failedRecords = new ArrayList<>();
+        try {
+            graphBatchWriter.write(entityType, batch, identityCache);
+            successful.add(batch.size());
+            forwarder.accept(batch);
+        } catch (Exception e) {
+            identityCache.clear();
+            if (RejectedRowSink.isTransient(e)) {
+                // Graphe indisponible : le traitement s'arrête au dernier point de contrôle, d'où la reprise
+                // réécrit ces lignes, au lieu de les rejeter une à une après autant de délais d'attente
+                throw new IllegalStateException("Graphe indisponible: " + e.getMessage(), e);
+            }
+            // Rejouer le lot ligne par ligne pour isoler les enregistrements en erreur
+            // Le rejeu écrit hors du cache : il ne reflète plus forcément l'état du graphe
+            List<IngestionRecord> written = new ArrayList<>(batch.size());
+            for (IngestionRecord record : batch) {
+                try {
+                    processRecord(record, entityType);
+                    successful.increment();
+                    written.add(record);
+                } catch (Exception recordError) {
+                    if (RejectedRowSink.isTransient(recordError)) {
+                        throw new IllegalStateException("Graphe indisponible: " + recordError.getMessage(), recordError);
+                    }
+                    failed.increment();
+                    failedRecords.add(record);
+                    // La ligne et son motif vont dans le fichier de rejets ; la console n'en reçoit qu'un échantillon
+                    rejects.reject(record, RejectedRowSink.classify(recordError), recordError.getMessage());
+                }
+            }
+            forwarder.accept(written);
+        }
+        batch.clear();
+        return failedRecords;
+    }
+
+    /**
+     * Traite un morceau d'un CSV distribué entre les instances et renseigne ses compteurs.
+     * Une nouvelle tentative reprend le morceau depuis le début : les écritures sont des MERGE.
+     *
+     * @param heartbeat appelé après chaque lot écrit, depuis le thread de traitement
+     */
+    public void processChunk(IngestionLog log, IngestionChunk chunk, Runnable heartbeat) throws IOException, CsvException {
+        String entityType = log.getEntityType();
+        LongAdder successful = new LongAdder();
+        LongAdder failed = new LongAdder();
+        IngestionIdentityCache identityCache = graphBatchWriter.newIdentityCache();
+        List<IngestionRecord> batch = new ArrayList<>(graphBatchWriter.getBatchSize());
+        RecordSchema[] schema = new RecordSchema[1]; // Propre au morceau : ses erreurs de conversion
+
+        long total;
+        RejectedRowSink.Writer rejects = rejectedRowSink.open(log, chunk.getChunkIndex());
+        BatchForwarder forwarder = openForwarder(entityType,
+                "l'ingestion " + log.getId() + " (morceau " + chunk.getChunkIndex() + ")");
+        try (rejects; forwarder) {
+            total = ingestionFileReader.readCsvRange(Paths.get(log.getStoredFilePath()), chunk.getHeaderLength(),
+                    chunk.getStartOffset(), chunk.getEndOffset(), entityType, record -> {
+                        schema[0] = record.getSchema();
+                        batch.add(record);
+                        if (batch.size() >= graphBatchWriter.getBatchSize()) {
+                            writeBatch(batch, entityType, identityCache, successful, failed, rejects, forwarder);
+                            heartbeat.run();
+                        }
+                    });
+            writeBatch(batch, entityType, identityCache, successful, failed, rejects, forwarder);
+        }
+        chunk.setRejectsFilePath(rejects.hasRejects() ? rejects.getPath().toString() : null);
+        chunk.setDroppedRejects((int) rejects.getDropped());
+
+        chunk.setTotalRecords((int) total);
+        chunk.setSuccessfulRecords(successful.intValue());
+        chunk.setFailedRecords(failed.intValue());
+        chunk.setForwardedRecords((int) forwarder.getForwarded());
+        chunk.setForwardFailedRecords((int) forwarder.getFailed());
+        chunk.setColumnErrors(schema[0] != null ? schema[0].getConversionErrors() : Map.of());
+    }
+
+    /**
+     * Écrit des enregistrements reçus hors fichier (messages) avec le même chemin que les fichiers :
+     * un lot, puis rejeu ligne par ligne si le lot échoue.
+     *
+     * @param onFailure reçoit chaque enregistrement rejeté et son erreur
+     * @return le nombre d'enregistrements en échec
+     * @throws IllegalStateException si le graphe est indisponible (erreur passagère) : les messages
+     *                               seront réessayés ; les données invalides sont passées à onFailure
+     */
+    public int writeRecords(String entityType, List<IngestionRecord> records,
+                            BiConsumer<IngestionRecord, Exception> onFailure) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        try (BatchForwarder forwarder = openForwarder(entityType, "ingestion.queue")) {
+            return writeRecords(entityType, records, forwarder, onFailure);
+        }
+    }
+
+    private int writeRecords(String entityType, List<IngestionRecord> records, BatchForwarder forwarder,
+                             BiConsumer<IngestionRecord, Exception> onFailure) {
+        try {
+            graphBatchWriter.write(entityType, records, graphBatchWriter.newIdentityCache());
+            forwarder.accept(records);
+            return 0;
+        } catch (Exception e) {
+            if (RejectedRowSink.isTransient(e)) {
+                // Inutile de rejouer chaque ligne contre un graphe indisponible
+                throw new IllegalStateException("Graphe indisponible: " + e.getMessage(), e);
+            }
+            int failed = 0;
+            int transientErrors = 0;
+            Exception lastError = e;
+            List<IngestionRecord> written = new ArrayList<>(records.size());
+            for (IngestionRecord record : records) {
+                try {
+                    processRecord(record, entityType);
+                    written.add(record);
+                } catch (Exception recordError) {
+                    failed++;
+                    lastError = recordError;
+                    if (RejectedRowSink.isTransient(recordError)) {
+                        transientErrors++;
+                    }
+                    onFailure.accept(record, recordError);
+                }
+            }
+            forwarder.accept(written);
+            if (transientErrors == records.size()) {
+                throw new IllegalStateException("Graphe indisponible: " + lastError.getMessage(), lastError);
+            }
+            return failed;
         }
     }
 
-    private void processRecord(Map<String, String> record, String entityType) {
+    private void processRecord(IngestionRecord record, String entityType) {
         switch (entityType) {
             case "User":
-                // Créer dans le graphe Neo4j
+                // Créer dans le graphe Neo4j ; le compte auth-service est créé par lots (UserForwardingService)
                 graphService.createOrUpdateStudent(record);
-                // Note: Pour créer dans auth-service, il faudrait appeler AuthServiceClient
-                // Cela sera géré dans une future version ou via un webhook
                 break;
             case "Module":
                 graphService.createOrUpdateModule(record);
@@ -171,59 +739,65 @@ public class DataIngestionService {
         }
     }
 
-    private void processEvaluation(Map<String, String> record) {
+    private void processEvaluation(IngestionRecord record) {
         // Récupérer ou créer student et module dans Neo4j
-        String studentId = record.get("student_id");
-        String moduleId = record.get("module_id");
-
-        Student student = null;
-        Module module = null;
+        String studentId = record.get(RecordSchema.Column.STUDENT_ID);
+        String moduleId = record.get(RecordSchema.Column.MODULE_ID);
 
-        if (studentId != null && !studentId.isEmpty()) {
-            student = graphService.createOrUpdateStudent(record);
+        if (studentId != null) {
+            graphService.createOrUpdateStudent(record);
         }
 
-        if (moduleId != null && !moduleId.isEmpty()) {
-            module = graphService.createOrUpdateModule(record);
+        if (moduleId != null) {
+            graphService.createOrUpdateModule(record);
         }
 
-        if (student != null && module != null) {
-            graphService.createEvaluation(record, student, module);
+        if (studentId != null && moduleId != null) {
+            graphService.createEvaluation(record, studentId, moduleId);
         }
 
-        // Créer la note dans note-service si les données sont complètes
-        // Note: Cette partie nécessitera un NoteServiceClient pour créer les notes
-        // Pour l'instant, les notes seront créées via l'import dans note-service
+        // La note est transmise à note-service par lots (NoteForwardingService), après l'écriture du lot
     }
 
-    private void processActivity(Map<String, String> record) {
+    private void processActivity(IngestionRecord record) {
         // Récupérer ou créer student et module dans Neo4j
-        String studentId = record.get("student_id");
-        String moduleId = record.get("module_id");
+        String studentId = record.get(RecordSchema.Column.STUDENT_ID);
+        String moduleId = record.get(RecordSchema.Column.MODULE_ID);
 
-        Student student = null;
-        Module module = null;
-
-        if (studentId != null && !studentId.isEmpty()) {
-            student = graphService.createOrUpdateStudent(record);
+        if (studentId != null) {
+            graphService.createOrUpdateStudent(record);
         }
 
-        if (moduleId != null && !moduleId.isEmpty()) {
-            module = graphService.createOrUpdateModule(record);
+        if (moduleId != null) {
+            graphService.createOrUpdateModule(record);
         }
 
-        if (student != null && module != null) {
-            graphService.createActivity(record, student, module);
+        if (studentId != null && moduleId != null) {
+            graphService.createActivity(record, studentId, moduleId);
         }
         
         // Note: La création dans activities-service sera gérée via l'import direct
         // car activities-service envoie directement à Data Ingestion qui valide et crée
     }
 
+    /**
+     * Transmetteur des lignes écrites vers le service qui les reçoit : comptes pour les
+     * utilisateurs, notes pour les évaluations, aucun pour les autres types.
+     */
+    private BatchForwarder openForwarder(String entityType, String label) {
+        return "User".equals(entityType)
+                ? userForwardingService.open(label)
+                : noteForwardingService.open(entityType, label);
+    }
+
     private IngestionLog createIngestionLog(MultipartFile file, String entityType) {
+        return createIngestionLog(file.getOriginalFilename(), entityType);
+    }
+
+    private IngestionLog createIngestionLog(String fileName, String entityType) {
         IngestionLog log = new IngestionLog();
-        log.setFileName(file.getOriginalFilename());
-        log.setFileType(getFileExtension(file.getOriginalFilename()));
+        log.setFileName(fileName);
+        log.setFileType(getFileExtension(fileName));
         log.setEntityType(entityType);
         log.setStatus(IngestionLog.Status.PENDING);
         return log;
@@ -246,9 +820,82 @@ public class DataIngestionService {
         response.setTotalRecords(log.getTotalRecords());
         response.setSuccessfulRecords(log.getSuccessfulRecords());
         response.setFailedRecords(log.getFailedRecords());
+        response.setForwardedRecords(log.getForwardedRecords());
+        response.setForwardFailedRecords(log.getForwardFailedRecords());
+        if (log.getColumnErrors() != null && !log.getColumnErrors().isEmpty()) {
+            response.setColumnErrors(new TreeMap<>(log.getColumnErrors()));
+        }
+        if (log.getRejectsFilePath() != null) {
+            response.setRejectsUrl("/api/ingestion/logs/" + log.getId() + "/rejects");
+        }
+        response.setDroppedRejects(log.getDroppedRejects());
+        response.setDuplicateOfLogId(log.getDuplicateOfLogId());
+        response.setDataset(log.getDataset());
+        response.setUnchangedRecords(log.getUnchangedRecords());
+        response.setRemovedRecords(log.getRemovedRecords());
         response.setMessage(message);
         response.setProcessedAt(log.getCreatedAt());
         return response;
     }
+
+    /**
+     * État d'un traitement de fichier. total n'est incrémenté que par le thread de lecture ;
+     * les résultats d'écriture peuvent venir de plusieurs voies.
+     */
+    private static class IngestionRun {
+        private final IngestionLog log;
+        private final String entityType;
+        private final int resumeFrom;
+        private int total;
+        private int lastCheckpoint;
+        private final IngestionProgressRegistry.Progress progress;
+        private final LongAdder successful;
+        private final LongAdder failed;
+        private final LongAdder unchanged = new LongAdder(); // Lignes ignorées en delta
+        private final Map<String, Long> previousColumnErrors = new TreeMap<>();
+        private long previousDroppedRejects;
+        private int previousForwarded; // Transmissions enregistrées avant la reprise
+        private int previousForwardFailed;
+        private final RejectedRowSink.Writer rejects;
+        private final BatchForwarder forwarder;
+        private RecordSchema schema;
+
+        private IngestionRun(IngestionLog log, IngestionProgressRegistry.Progress progress,
+                             RejectedRowSink.Writer rejects, BatchForwarder forwarder) {
+            this.log = log;
+            this.rejects = rejects;
+            this.forwarder = forwarder;
+            this.progress = progress;
+            this.successful = progress.successful();
+            this.failed = progress.failed();
+            this.entityType = log.getEntityType();
+            this.resumeFrom = log.getCheckpointOffset() != null ? log.getCheckpointOffset() : 0;
+            this.lastCheckpoint = resumeFrom;
+            progress.resumedFrom(resumeFrom);
+            if (resumeFrom > 0) {
+                // Les compteurs enregistrés correspondent aux lignes avant le point de contrôle
+                successful.add(log.getSuccessfulRecords() != null ? log.getSuccessfulRecords() : 0);
+                failed.add(log.getFailedRecords() != null ? log.getFailedRecords() : 0);
+                unchanged.add(log.getUnchangedRecords() != null ? log.getUnchangedRecords() : 0);
+                if (log.getColumnErrors() != null) {
+                    previousColumnErrors.putAll(log.getColumnErrors());
+                }
+                previousDroppedRejects = log.getDroppedRejects() != null ? log.getDroppedRejects() : 0;
+                previousForwarded = log.getForwardedRecords() != null ? log.getForwardedRecords() : 0;
+                previousForwardFailed = log.getForwardFailedRecords() != null ? log.getForwardFailedRecords() : 0;
+            }
+        }
+
+        /**
+         * Erreurs de conversion par colonne, y compris celles enregistrées avant la reprise.
+         */
+        private Map<String, Long> columnErrors() {
+            Map<String, Long> errors = new TreeMap<>(previousColumnErrors);
+            if (schema != null) {
+                schema.getConversionErrors().forEach((column, count) -> errors.merge(column, count, Long::sum));
+            }
+            return errors;
+        }
+    }
 }
 
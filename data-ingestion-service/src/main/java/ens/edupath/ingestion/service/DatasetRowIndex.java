@@ -0,0 +1,228 @@
+package ens.edupath.ingestion.service;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index des empreintes de lignes par jeu de données, pour l'ingestion en delta : un fichier
+ * renvoyé chaque semaine avec les mêmes lignes ne réécrit dans le graphe que les lignes
+ * nouvelles ou modifiées. La clé d'une ligne est l'identifiant du nœud qu'elle écrit.
+ *
+ * Chaque ligne vue par une ingestion est marquée avec l'identifiant du log : les lignes non
+ * marquées à la fin du fichier ont disparu de la source.
+ */
+@Service
+public class DatasetRowIndex {
+
+    private static final String FIND = """
+            SELECT row_key, row_hash FROM dataset_row_hashes
+            WHERE dataset = ? AND row_key = ANY (?)
+            """;
+
+    private static final String TOUCH = """
+            UPDATE dataset_row_hashes SET last_seen_log_id = ?, updated_at = now()
+            WHERE dataset = ? AND row_key = ANY (?)
+            """;
+
+    private static final String UPSERT = """
+            INSERT INTO dataset_row_hashes (dataset, entity_type, row_key, row_hash, last_seen_log_id, updated_at)
+            VALUES (?, ?, ?, ?, ?, now())
+            ON CONFLICT (dataset, row_key)
+            DO UPDATE SET row_hash = EXCLUDED.row_hash,
+                          last_seen_log_id = EXCLUDED.last_seen_log_id,
+                          updated_at = now()
+            """;
+
+    private static final String FIND_REMOVED = """
+            SELECT row_key FROM dataset_row_hashes
+            WHERE dataset = ? AND entity_type = ? AND last_seen_log_id <> ?
+            """;
+
+    private static final String FIND_ENTITY_TYPE = """
+            SELECT entity_type FROM dataset_row_hashes
+            WHERE dataset = ? LIMIT 1
+            """;
+
+    private static final String DELETE = """
+            DELETE FROM dataset_row_hashes
+            WHERE dataset = ? AND row_key = ANY (?)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DatasetRowIndex(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Compare un lot de lignes à l'index et marque comme vues par ce log les lignes déjà connues.
+     * Les empreintes des lignes à écrire ne sont enregistrées qu'après leur écriture, avec {@link #record}.
+     */
+    public Delta compare(String dataset, Long logId, String entityType, List<IngestionRecord> records) {
+        Map<IngestionRecord, Fingerprint> fingerprints = new IdentityHashMap<>();
+        Set<String> keys = new LinkedHashSet<>();
+        for (IngestionRecord record : records) {
+            String key = GraphProperties.nodeId(entityType, record);
+            if (key != null) {
+                fingerprints.put(record, new Fingerprint(key, hash(record)));
+                keys.add(key);
+            }
+        }
+
+        Map<String, String> known = find(dataset, keys);
+        List<IngestionRecord> changed = new ArrayList<>();
+        int inserted = 0;
+        int modified = 0;
+        int unchanged = 0;
+        for (IngestionRecord record : records) {
+            Fingerprint fingerprint = fingerprints.get(record);
+            String previous = fingerprint != null ? known.get(fingerprint.key()) : null;
+            if (fingerprint == null || previous == null) {
+                // Sans clé stable, la ligne est toujours écrite
+                inserted++;
+                changed.add(record);
+            } else if (!previous.equals(fingerprint.hash())) {
+                modified++;
+                changed.add(record);
+            } else {
+                unchanged++;
+            }
+        }
+
+        if (!known.isEmpty()) {
+            withKeys(TOUCH, known.keySet(), (ps, array) -> {
+                ps.setLong(1, logId);
+                ps.setString(2, dataset);
+                ps.setArray(3, array);
+                ps.executeUpdate();
+            });
+        }
+        return new Delta(changed, fingerprints, inserted, modified, unchanged);
+    }
+
+    /**
+     * Enregistre les empreintes des lignes écrites avec succès.
+     */
+    public void record(String dataset, String entityType, Long logId, Collection<Fingerprint> written) {
+        if (written.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(written.size());
+        for (Fingerprint fingerprint : written) {
+            rows.add(new Object[] {dataset, entityType, fingerprint.key(), fingerprint.hash(), logId});
+        }
+        jdbcTemplate.batchUpdate(UPSERT, rows);
+    }
+
+    /**
+     * Un jeu de données ne contient qu'un type d'entité : ses clés de ligne sont des identifiants de nœud de ce type.
+     *
+     * @return le motif du refus si le jeu de données contient déjà des lignes d'un autre type, sinon null
+     */
+    public String checkEntityType(String dataset, String entityType) {
+        List<String> existing = jdbcTemplate.queryForList(FIND_ENTITY_TYPE, String.class, dataset);
+        if (existing.isEmpty() || existing.get(0).equals(entityType)) {
+            return null;
+        }
+        return "Le jeu de données " + dataset + " contient des lignes " + existing.get(0)
+                + ", pas " + entityType + " : utiliser un autre nom de jeu de données";
+    }
+
+    /**
+     * @return les clés du jeu de données absentes du fichier ingéré par ce log
+     */
+    public List<String> removedKeys(String dataset, String entityType, Long logId) {
+        return jdbcTemplate.queryForList(FIND_REMOVED, String.class, dataset, entityType, logId);
+    }
+
+    /**
+     * Retire des clés de l'index : si la ligne réapparaît, elle sera traitée comme nouvelle.
+     */
+    public void forget(String dataset, Collection<String> keys) {
+        if (!keys.isEmpty()) {
+            withKeys(DELETE, keys, (ps, array) -> {
+                ps.setString(1, dataset);
+                ps.setArray(2, array);
+                ps.executeUpdate();
+            });
+        }
+    }
+
+    private Map<String, String> find(String dataset, Collection<String> keys) {
+        Map<String, String> known = new HashMap<>();
+        if (keys.isEmpty()) {
+            return known;
+        }
+        withKeys(FIND, keys, (ps, array) -> {
+            ps.setString(1, dataset);
+            ps.setArray(2, array);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    known.put(rs.getString("row_key"), rs.getString("row_hash"));
+                }
+            }
+        });
+        return known;
+    }
+
+    /**
+     * Exécute la requête avec les clés liées en un seul tableau (= ANY), comme FeatureStoreService.
+     */
+    private void withKeys(String sql, Collection<String> keys, StatementCallback callback) {
+        jdbcTemplate.execute(sql, (PreparedStatement ps) -> {
+            Array array = ps.getConnection().createArrayOf("text", keys.toArray());
+            try {
+                callback.apply(ps, array);
+            } finally {
+                array.free();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Empreinte indépendante de l'ordre des colonnes : headers et valeurs non vides triés par header.
+     */
+    static String hash(IngestionRecord record) {
+        MessageDigest digest = IngestionFileStore.newDigest();
+        for (Map.Entry<String, String> entry : new TreeMap<>(record.toMap()).entrySet()) {
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0x1f);
+            digest.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0x1e);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @FunctionalInterface
+    private interface StatementCallback {
+        void apply(PreparedStatement ps, Array keys) throws SQLException;
+    }
+
+    public record Fingerprint(String key, String hash) {
+    }
+
+    /**
+     * Lignes du lot à écrire, dans l'ordre du fichier, et empreintes de celles qui ont une clé.
+     */
+    public record Delta(List<IngestionRecord> changed, Map<IngestionRecord, Fingerprint> fingerprints,
+                        int inserted, int modified, int unchanged) {
+    }
+}
@@ -0,0 +1,63 @@
+package ens.edupath.ingestion.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Interrompt la lecture dès que le flux décompressé dépasse la limite (fichiers .gz/.zst,
+ * entrées d'une archive ZIP).
+ */
+class DecompressionLimitInputStream extends FilterInputStream {
+    private final long limit;
+    private final long compressedSize;
+    private long count;
+
+    DecompressionLimitInputStream(InputStream in, long limit, long compressedSize) {
+        super(in);
+        this.limit = limit;
+        this.compressedSize = compressedSize;
+    }
+
+    /**
+     * Limite de taille décompressée : maxRatio fois la taille compressée, sans dépasser maxSize.
+     */
+    static long limit(long compressedSize, long maxSize, int maxRatio) {
+        return compressedSize > maxSize / maxRatio
+                ? maxSize
+                : Math.min(maxSize, Math.max(1, compressedSize) * maxRatio);
+    }
+
+    /**
+     * @return les octets décompressés lus jusqu'ici
+     */
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = super.read(buffer, offset, length);
+        if (n > 0) {
+            count(n);
+        }
+        return n;
+    }
+
+    private void count(int n) throws IOException {
+        count += n;
+        if (count > limit) {
+            throw new IOException("Fichier décompressé trop volumineux: plus de " + limit
+                    + " octets pour " + compressedSize + " octets compressés");
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package ens.edupath.ingestion.service;
+
+import ens.edupath.ingestion.dto.DryRunReport;
+import ens.edupath.ingestion.dto.ValidationResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.neo4j.core.Neo4jClient;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static ens.edupath.ingestion.service.RecordSchema.Column.*;
+
+/**
+ * Validation à blanc d'un fichier : lecture complète, conversions et références contrôlées
+ * comme lors d'une ingestion, sans aucune écriture. La lecture reste séquentielle, les lots
+ * de lignes sont validés sur tous les cœurs.
+ *
+ * Les étudiants et modules inconnus du graphe sont signalés sans invalider la ligne :
+ * l'ingestion les crée.
+ */
+@Service
+public class DryRunValidationService {
+
+    private static final int UNKNOWN_ID_SAMPLE = 20;
+    private static final AtomicInteger RUN_SEQUENCE = new AtomicInteger();
+
+    private final FileValidationService fileValidationService;
+    private final IngestionFileStore ingestionFileStore;
+    private final IngestionFileReader ingestionFileReader;
+    private final ExcelParserService excelParserService;
+    private final Neo4jClient neo4jClient;
+
+    @Value("${processing.dry-run.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${processing.dry-run.threads:0}")
+    private int threads;
+
+    @Value("${processing.dry-run.max-errors:200}")
+    private int maxErrors;
+
+    public DryRunValidationService(FileValidationService fileValidationService,
+                                   IngestionFileStore ingestionFileStore,
+                                   IngestionFileReader ingestionFileReader,
+                                   ExcelParserService excelParserService,
+                                   Neo4jClient neo4jClient) {
+        this.fileValidationService = fileValidationService;
+        this.ingestionFileStore = ingestionFileStore;
+        this.ingestionFileReader = ingestionFileReader;
+        this.excelParserService = excelParserService;
+        this.neo4jClient = neo4jClient;
+    }
+
+    public DryRunReport validate(MultipartFile file, String entityType) {
+        long start = System.nanoTime();
+        DryRunReport report = new DryRunReport();
+        report.setFileName(file != null ? file.getOriginalFilename() : null);
+        report.setEntityType(entityType);
+
+        ValidationResult validation = fileValidationService.validateFile(file, entityType);
+        if (!validation.isValid()) {
+            report.getFileErrors().addAll(validation.getErrors());
+            return finish(report, start);
+        }
+        String name = file.getOriginalFilename().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".zip")) {
+            report.getFileErrors().add("Validation à blanc non disponible pour les archives : valider chaque fichier");
+            return finish(report, start);
+        }
+
+        IngestionFileStore.StoredFile stored = null;
+        try {
+            stored = ingestionFileStore.store(file);
+            Run run = new Run(entityType, references(entityType));
+
+            List<String> sheets = name.endsWith(".xlsx") || name.endsWith(".xls")
+                    ? excelParserService.sheetNames(stored.path(), name)
+                    : List.of();
+            if (sheets.size() < 2) {
+                validateSheet(stored.path(), file.getOriginalFilename(), null, run);
+            } else {
+                // Comme l'ingestion (processing.bundles.all-sheets) : chaque feuille est validée
+                for (String sheet : sheets) {
+                    validateSheet(stored.path(), file.getOriginalFilename(), sheet, run);
+                }
+            }
+            run.fill(report);
+        } catch (Exception e) {
+            report.getFileErrors().add("Fichier illisible: " + e.getMessage());
+        } finally {
+            if (stored != null) {
+                ingestionFileStore.delete(stored.path().toString());
+            }
+        }
+        return finish(report, start);
+    }
+
+    private void validateSheet(Path path, String fileName, String sheetName, Run run) throws Exception {
+        int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        int runId = RUN_SEQUENCE.incrementAndGet();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "dry-run-" + runId + "-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Lots en attente bornés : la lecture ne prend pas d'avance sur la validation
+        Semaphore pending = new Semaphore(threadCount * 2);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        BatchFeeder feeder = new BatchFeeder(batchSize, batch -> {
+            pending.acquireUninterruptibly();
+            executor.execute(() -> {
+                try {
+                    for (IngestionRecord record : batch) {
+                        run.validate(record, sheetName);
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    pending.release();
+                }
+            });
+        });
+
+        try {
+            ingestionFileReader.read(path, fileName, sheetName, run.entityType, null, feeder);
+            feeder.flush();
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.HOURS);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Identifiants existants chargés une fois par validation, pour les seuls types qui référencent
+     * un étudiant et un module.
+     */
+    private References references(String entityType) {
+        switch (entityType) {
+            case "Note":
+            case "Evaluation":
+            case "Presence":
+            case "Activity":
+                return new References(
+                        new HashSet<>(neo4jClient.query(
+                                "MATCH (s:Student) WHERE s.studentId IS NOT NULL RETURN s.studentId")
+                                .fetchAs(String.class).all()),
+                        new HashSet<>(neo4jClient.query(
+                                "MATCH (m:Module) WHERE m.moduleId IS NOT NULL RETURN m.moduleId")
+                                .fetchAs(String.class).all()));
+            default:
+                return null;
+        }
+    }
+
+    private DryRunReport finish(DryRunReport report, long start) {
+        report.setValid(report.getFileErrors().isEmpty() && report.getInvalidRecords() == 0
+                && report.getTotalRecords() > 0);
+        if (report.getFileErrors().isEmpty() && report.getTotalRecords() == 0) {
+            report.getFileErrors().add("Aucune donnée trouvée dans le fichier");
+        }
+        report.setDurationMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        report.setMessage(report.isValid()
+                ? "Fichier valide, aucune donnée écrite"
+                : "Fichier invalide, aucune donnée écrite");
+        return report;
+    }
+
+    /**
+     * Regroupe les lignes lues en lots transmis au pool de validation.
+     */
+    private static final class BatchFeeder implements Consumer<IngestionRecord> {
+        private final int batchSize;
+        private final Consumer<List<IngestionRecord>> sink;
+        private List<IngestionRecord> batch;
+
+        private BatchFeeder(int batchSize, Consumer<List<IngestionRecord>> sink) {
+            this.batchSize = Math.max(1, batchSize);
+            this.sink = sink;
+            this.batch = new ArrayList<>(this.batchSize);
+        }
+
+        @Override
+        public void accept(IngestionRecord record) {
+            batch.add(record);
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (!batch.isEmpty()) {
+                sink.accept(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+    }
+
+    private record References(Set<String> studentIds, Set<String> moduleIds) {
+    }
+
+    /**
+     * Compteurs partagés par les threads de validation. L'échantillon d'erreurs garde les
+     * maxErrors premières lignes du fichier, quel que soit l'ordre de traitement des lots.
+     */
+    private final class Run {
+        private final String entityType;
+        private final References references;
+        private final LongAdder total = new LongAdder();
+        private final LongAdder invalid = new LongAdder();
+        private final LongAdder unknownStudents = new LongAdder();
+        private final LongAdder unknownModules = new LongAdder();
+        private final Set<String> unknownModuleIds = ConcurrentHashMap.newKeySet();
+        private final Map<String, LongAdder> errorCounts = new ConcurrentHashMap<>();
+        private final PriorityQueue<DryRunReport.RowError> sample = new PriorityQueue<>(
+                Comparator.comparingLong(DryRunReport.RowError::getRowNumber).reversed());
+        private volatile boolean truncated;
+
+        private Run(String entityType, References references) {
+            this.entityType = entityType;
+            this.references = references;
+        }
+
+        private void validate(IngestionRecord record, String sheetName) {
+            total.increment();
+            List<DryRunReport.RowError> errors = new ArrayList<>(2);
+
+            switch (entityType) {
+                case "User":
+                    required(record, STUDENT_ID, "un identifiant aléatoire serait généré", errors);
+                    break;
+                case "Module":
+                    required(record, MODULE_ID, "un identifiant aléatoire serait généré", errors);
+                    integer(record, CREDITS, errors);
+                    break;
+                case "Note":
+                case "Evaluation":
+                    owners(record, errors);
+                    decimal(record, SCORE, errors);
+                    decimal(record, MAX_SCORE, errors);
+                    date(record, DATE, errors);
+                    break;
+                case "Presence":
+                case "Activity":
+                    owners(record, errors);
+                    date(record, DATE, errors);
+                    integer(record, DURATION, errors);
+                    bool(record, PRESENT, errors);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Type d'entité non supporté: " + entityType);
+            }
+
+            if (!errors.isEmpty()) {
+                invalid.increment();
+                for (DryRunReport.RowError error : errors) {
+                    error.setRowNumber(record.getRowNumber());
+                    if (sheetName != null) {
+                        error.setColumn(sheetName + "!" + error.getColumn());
+                    }
+                    errorCounts.computeIfAbsent(error.getColumn() + ":" + error.getCode(), key -> new LongAdder())
+                            .increment();
+                    keep(error);
+                }
+            }
+        }
+
+        private void owners(IngestionRecord record, List<DryRunReport.RowError> errors) {
+            required(record, STUDENT_ID, "ligne ignorée par l'ingestion", errors);
+            required(record, MODULE_ID, "ligne ignorée par l'ingestion", errors);
+            if (references == null) {
+                return;
+            }
+            String studentId = record.get(STUDENT_ID);
+            String moduleId = record.get(MODULE_ID);
+            if (studentId != null && !references.studentIds().contains(studentId)) {
+                unknownStudents.increment();
+            }
+            if (moduleId != null && !references.moduleIds().contains(moduleId)) {
+                unknownModules.increment();
+                unknownModuleIds.add(moduleId);
+            }
+        }
+
+        private void required(IngestionRecord record, RecordSchema.Column column, String consequence,
+                              List<DryRunReport.RowError> errors) {
+            if (!record.has(column)) {
+                errors.add(error(column, "MISSING_REQUIRED", null, "Valeur obligatoire manquante, " + consequence));
+            }
+        }
+
+        private void integer(IngestionRecord record, RecordSchema.Column column, List<DryRunReport.RowError> errors) {
+            String value = record.get(column);
+            if (value == null) {
+                return;
+            }
+            long parsed = LenientParser.parseLong(value);
+            if (parsed == LenientParser.INVALID || parsed < Integer.MIN_VALUE || parsed > Integer.MAX_VALUE) {
+                errors.add(error(column, "INVALID_NUMBER", value, "Entier attendu"));
+            }
+        }
+
+        private void decimal(IngestionRecord record, RecordSchema.Column column, List<DryRunReport.RowError> errors) {
+            String value = record.get(column);
+            if (value != null && Double.isNaN(LenientParser.parseDouble(value))) {
+                errors.add(error(column, "INVALID_NUMBER", value, "Nombre attendu"));
+            }
+        }
+
+        private void date(IngestionRecord record, RecordSchema.Column column, List<DryRunReport.RowError> errors) {
+            String value = record.get(column);
+            if (value != null && LenientParser.parseDate(value) == null) {
+                errors.add(error(column, "INVALID_DATE", value, "Format de date non reconnu"));
+            }
+        }
+
+        private void bool(IngestionRecord record, RecordSchema.Column column, List<DryRunReport.RowError> errors) {
+            String value = record.get(column);
+            if (value != null && LenientParser.parseBoolean(value) == null) {
+                errors.add(error(column, "INVALID_BOOLEAN", value, "Valeur non reconnue, serait lue comme false"));
+            }
+        }
+
+        private DryRunReport.RowError error(RecordSchema.Column column, String code, String value, String message) {
+            return new DryRunReport.RowError(0, column.name().toLowerCase(Locale.ROOT), code, value, message);
+        }
+
+        private synchronized void keep(DryRunReport.RowError error) {
+            sample.add(error);
+            if (sample.size() > maxErrors) {
+                sample.poll();
+                truncated = true;
+            }
+        }
+
+        private synchronized void fill(DryRunReport report) {
+            report.setTotalRecords(total.sum());
+            report.setInvalidRecords(invalid.sum());
+            report.setValidRecords(total.sum() - invalid.sum());
+            Map<String, Long> counts = new TreeMap<>();
+            errorCounts.forEach((key, count) -> counts.put(key, count.sum()));
+            report.setErrorCounts(counts);
+
+            List<DryRunReport.RowError> errors = new ArrayList<>(sample);
+            errors.sort(Comparator.comparingLong(DryRunReport.RowError::getRowNumber));
+            report.setErrors(errors);
+            report.setErrorsTruncated(truncated);
+
+            report.setUnknownStudentReferences(unknownStudents.sum());
+            report.setUnknownModuleReferences(unknownModules.sum());
+            report.setUnknownModuleIds(unknownModuleIds.stream().sorted().limit(UNKNOWN_ID_SAMPLE).toList());
+        }
+    }
+}
@@ -1,100 +1,173 @@
 package ens.edupath.ingestion.service;
 
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
+import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 @Service
 public class ExcelParserService {
 
-    public List<Map<String, String>> parseExcel(MultipartFile file) throws IOException {
-        List<Map<String, String>> records = new ArrayList<>();
-        Workbook workbook = null;
-
-        try {
-            String filename = file.getOriginalFilename();
-            if (filename != null && filename.endsWith(".xlsx")) {
-                workbook = new XSSFWorkbook(file.getInputStream());
-            } else if (filename != null && filename.endsWith(".xls")) {
-                workbook = new HSSFWorkbook(file.getInputStream());
-            } else {
-                throw new IOException("Format Excel non supporté");
-            }
-
-            Sheet sheet = workbook.getSheetAt(0); // Première feuille
+    public long streamExcel(Path path, String filename, String entityType,
+                            Consumer<IngestionRecord> handler) throws IOException {
+        return streamExcel(path, filename, null, entityType, handler);
+    }
 
-            if (sheet.getPhysicalNumberOfRows() == 0) {
-                return records;
+    /**
+     * Lit une feuille d'un fichier stocké sur disque (la première si sheetName est null) et transmet chaque ligne au handler.
+     * Les fichiers .xlsx sont lus en flux via le modèle événementiel OOXML (table des chaînes
+     * partagées + flux XML de la feuille) ; le modèle DOM n'est conservé que pour les .xls.
+     * Les headers sont résolus une seule fois en {@link RecordSchema} pour le type d'entité.
+     *
+     * @return le nombre d'enregistrements transmis au handler
+     */
+    public long streamExcel(Path path, String filename, String sheetName, String entityType,
+                            Consumer<IngestionRecord> handler) throws IOException {
+        if (filename != null && filename.endsWith(".xlsx")) {
+            return streamXlsx(path, sheetName, entityType, handler);
+        } else if (filename != null && filename.endsWith(".xls")) {
+            try (InputStream in = Files.newInputStream(path);
+                 Workbook workbook = new HSSFWorkbook(in)) {
+                Sheet sheet = sheetName != null ? workbook.getSheet(sheetName) : workbook.getSheetAt(0);
+                if (sheet == null) {
+                    throw new IOException("Feuille introuvable: " + sheetName);
+                }
+                return readSheet(sheet, entityType, handler);
             }
+        }
+        throw new IOException("Format Excel non supporté");
+    }
 
-            // Première ligne = headers
-            Row headerRow = sheet.getRow(0);
-            if (headerRow == null) {
-                return records;
+    /**
+     * Noms des feuilles du classeur, dans l'ordre du fichier. Pour un .xlsx seul le
+     * catalogue du classeur est lu, pas le contenu des feuilles.
+     */
+    public List<String> sheetNames(Path path, String filename) throws IOException {
+        List<String> names = new ArrayList<>();
+        if (filename != null && filename.endsWith(".xlsx")) {
+            try (OPCPackage pkg = OPCPackage.open(path.toFile(), PackageAccess.READ)) {
+                XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) new XSSFReader(pkg).getSheetsData();
+                while (sheets.hasNext()) {
+                    sheets.next().close();
+                    names.add(sheets.getSheetName());
+                }
+            } catch (OpenXML4JException e) {
+                throw new IOException("Fichier Excel illisible: " + e.getMessage(), e);
+            }
+        } else if (filename != null && filename.endsWith(".xls")) {
+            try (InputStream in = Files.newInputStream(path);
+                 Workbook workbook = new HSSFWorkbook(in)) {
+                for (Sheet sheet : workbook) {
+                    names.add(sheet.getSheetName());
+                }
             }
+        } else {
+            throw new IOException("Format Excel non supporté");
+        }
+        return names;
+    }
 
-            String[] headers = extractHeaders(headerRow);
+    private long streamXlsx(Path path, String sheetName, String entityType,
+                            Consumer<IngestionRecord> handler) throws IOException {
+        // Ouvert depuis un fichier, OPCPackage lit les entrées directement dans le zip
+        // alors qu'un InputStream serait entièrement chargé en mémoire
+        try (OPCPackage pkg = OPCPackage.open(path.toFile(), PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
 
-            // Lignes de données
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) {
-                    continue;
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream sheet = sheets.next()) {
+                    if (sheetName != null && !sheetName.equals(sheets.getSheetName())) {
+                        continue;
+                    }
+                    StreamingRowHandler rowHandler = new StreamingRowHandler(entityType, handler);
+                    XMLReader parser = XMLHelper.newXMLReader();
+                    parser.setContentHandler(new XSSFSheetXMLHandler(
+                            styles, strings, rowHandler, new LegacyCompatibleFormatter(), false));
+                    parser.parse(new InputSource(sheet));
+                    return rowHandler.count; // Feuille demandée, ou première feuille
                 }
+            }
+            if (sheetName != null) {
+                throw new IOException("Feuille introuvable: " + sheetName);
+            }
+            return 0;
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Fichier Excel illisible: " + e.getMessage(), e);
+        }
+    }
 
-                Map<String, String> record = createRecord(headers, row);
-                if (!record.isEmpty()) {
-                    records.add(record);
-                }
+    private long readSheet(Sheet sheet, String entityType, Consumer<IngestionRecord> handler) {
+        long count = 0;
+
+        if (sheet.getPhysicalNumberOfRows() == 0) {
+            return count;
+        }
+
+        // Première ligne = headers
+        Row headerRow = sheet.getRow(0);
+        if (headerRow == null) {
+            return count;
+        }
+
+        RecordSchema schema = RecordSchema.compile(entityType, extractHeaders(headerRow));
+
+        // Lignes de données
+        for (int i = 1; i <= sheet.getLastRowNum(); i++) {
+            Row row = sheet.getRow(i);
+            if (row == null) {
+                continue;
             }
 
-        } finally {
-            if (workbook != null) {
-                workbook.close();
+            IngestionRecord record = createRecord(schema, i + 1, row);
+            if (record != null) {
+                handler.accept(record);
+                count++;
             }
         }
 
-        return records;
+        return count;
     }
 
     private String[] extractHeaders(Row headerRow) {
         List<String> headers = new ArrayList<>();
         for (Cell cell : headerRow) {
             String headerValue = getCellValueAsString(cell);
-            headers.add(normalizeHeader(headerValue));
+            headers.add(RecordSchema.normalizeHeader(headerValue));
         }
         return headers.toArray(new String[0]);
     }
 
-    private String normalizeHeader(String header) {
-        return header.trim()
-                .toLowerCase()
-                .replaceAll("\\s+", "_")
-                .replaceAll("[^a-z0-9_]", "");
-    }
-
-    private Map<String, String> createRecord(String[] headers, Row row) {
-        Map<String, String> record = new HashMap<>();
-        
-        for (int i = 0; i < headers.length && i < row.getLastCellNum(); i++) {
-            Cell cell = row.getCell(i);
-            String value = getCellValueAsString(cell);
-            String key = headers[i];
-            
-            if (!key.isEmpty() && !value.isEmpty()) {
-                record.put(key, value);
-            }
+    private IngestionRecord createRecord(RecordSchema schema, long rowNumber, Row row) {
+        String[] cells = new String[schema.width()];
+        for (int i = 0; i < cells.length && i < row.getLastCellNum(); i++) {
+            cells[i] = getCellValueAsString(row.getCell(i));
         }
-        
-        return record;
+        return IngestionRecord.of(schema, rowNumber, cells);
     }
 
     private String getCellValueAsString(Cell cell) {
@@ -125,6 +198,77 @@ public class ExcelParserService {
                 return "";
         }
     }
-}
 
+    /**
+     * Reçoit les cellules émises par le parseur SAX et reconstruit les enregistrements ligne par ligne.
+     * La première ligne rencontrée fournit les headers.
+     */
+    private class StreamingRowHandler implements SheetContentsHandler {
+        private final String entityType;
+        private final Consumer<IngestionRecord> handler;
+        private final List<String> headerValues = new ArrayList<>();
+        private RecordSchema schema;
+        private String[] current;
+        private int currentColumn;
+        private long count;
+
+        StreamingRowHandler(String entityType, Consumer<IngestionRecord> handler) {
+            this.entityType = entityType;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            currentColumn = -1;
+            current = schema != null ? new String[schema.width()] : null;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (schema == null) {
+                schema = RecordSchema.compile(entityType, headerValues.toArray(new String[0]));
+                return;
+            }
+            IngestionRecord record = IngestionRecord.of(schema, rowNum + 1, current);
+            if (record != null) {
+                handler.accept(record);
+                count++;
+            }
+        }
 
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            // Les cellules vides sont absentes du flux : se repérer avec la référence de cellule
+            currentColumn = cellReference != null
+                    ? new CellReference(cellReference).getCol()
+                    : currentColumn + 1;
+            String value = formattedValue != null ? formattedValue.trim() : "";
+
+            if (schema == null) {
+                while (headerValues.size() < currentColumn) {
+                    headerValues.add("");
+                }
+                headerValues.add(RecordSchema.normalizeHeader(value));
+            } else if (currentColumn < current.length) {
+                current[currentColumn] = value;
+            }
+        }
+    }
+
+    /**
+     * Formate les valeurs numériques comme le chemin DOM (getCellValueAsString) pour que
+     * les deux lecteurs produisent les mêmes enregistrements.
+     */
+    private static class LegacyCompatibleFormatter extends DataFormatter {
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString) {
+            if (DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(value)) {
+                return DateUtil.getJavaDate(value).toString();
+            }
+            if (value == (long) value) {
+                return String.valueOf((long) value);
+            }
+            return String.valueOf(value);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ens.edupath.ingestion.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Magasin des features IA : un document JSONB par (entity_type, entity_id) dans ai_features.
+ * Les écritures passent par des INSERT ... ON CONFLICT groupés et les lectures par une seule
+ * requête pour toute une liste d'entités, sans passer par le chargement des entités JPA.
+ */
+@Service
+public class FeatureStoreService {
+
+    private static final TypeReference<Map<String, Object>> FEATURES_TYPE = new TypeReference<>() { };
+
+    // Les clés déjà présentes sont conservées : une mise à jour partielle ne remplace que ses clés
+    private static final String UPSERT = """
+            INSERT INTO ai_features (entity_type, entity_id, features, created_at, updated_at)
+            VALUES (?, ?, CAST(? AS jsonb), now(), now())
+            ON CONFLICT (entity_type, entity_id)
+            DO UPDATE SET features = coalesce(ai_features.features, '{}'::jsonb) || EXCLUDED.features,
+                          updated_at = now()
+            """;
+
+    private static final String FIND_BY_IDS = """
+            SELECT entity_id, features FROM ai_features
+            WHERE entity_type = ? AND entity_id = ANY (?)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final int maxReadIds;
+
+    public FeatureStoreService(JdbcTemplate jdbcTemplate,
+                               ObjectMapper objectMapper,
+                               @Value("${processing.features.batch-size:500}") int batchSize,
+                               @Value("${processing.features.max-read-ids:10000}") int maxReadIds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxReadIds = maxReadIds;
+    }
+
+    /**
+     * Enregistre les features de plusieurs entités du même type, par lots JDBC.
+     *
+     * @param features features par identifiant d'entité
+     * @return le nombre d'entités écrites
+     */
+    public int upsert(String entityType, Map<String, Map<String, Object>> features) {
+        requireEntityType(entityType);
+        List<Object[]> rows = new ArrayList<>(features.size());
+        for (Map.Entry<String, Map<String, Object>> entry : features.entrySet()) {
+            if (entry.getKey() == null || entry.getKey().isBlank()) {
+                throw new IllegalArgumentException("Identifiant d'entité manquant");
+            }
+            Map<String, Object> values = entry.getValue() != null ? entry.getValue() : Map.of();
+            rows.add(new Object[] {entityType, entry.getKey(), toJson(values)});
+        }
+
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            jdbcTemplate.batchUpdate(UPSERT, rows.subList(from, Math.min(rows.size(), from + batchSize)));
+        }
+        return rows.size();
+    }
+
+    /**
+     * Renvoie les features de toutes les entités demandées en une seule requête.
+     * Les entités sans features sont absentes du résultat.
+     */
+    public Map<String, Map<String, Object>> findFeatures(String entityType, Collection<String> entityIds) {
+        requireEntityType(entityType);
+        if (entityIds.size() > maxReadIds) {
+            throw new IllegalArgumentException("Trop d'entités demandées (" + entityIds.size()
+                    + ", maximum " + maxReadIds + ")");
+        }
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        if (entityIds.isEmpty()) {
+            return result;
+        }
+
+        jdbcTemplate.execute(FIND_BY_IDS, (PreparedStatement ps) -> {
+            Array ids = ps.getConnection().createArrayOf("text", entityIds.toArray());
+            try {
+                ps.setString(1, entityType);
+                ps.setArray(2, ids);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        result.put(rs.getString("entity_id"), fromJson(rs.getString("features")));
+                    }
+                }
+            } finally {
+                ids.free();
+            }
+            return null;
+        });
+        return result;
+    }
+
+    private void requireEntityType(String entityType) {
+        if (entityType == null || entityType.isBlank()) {
+            throw new IllegalArgumentException("Type d'entité manquant");
+        }
+    }
+
+    private String toJson(Map<String, Object> features) {
+        try {
+            return objectMapper.writeValueAsString(features);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Features non sérialisables: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    private Map<String, Object> fromJson(String json) {
+        if (json == null) {
+            return Map.of();
+        }
+        try {
+            return objectMapper.readValue(json, FEATURES_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Document de features illisible: " + e.getOriginalMessage(), e);
+        }
+    }
+}
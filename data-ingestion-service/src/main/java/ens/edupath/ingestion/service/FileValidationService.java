@@ -1,7 +1,10 @@
 package ens.edupath.ingestion.service;
 
 import ens.edupath.ingestion.dto.ValidationResult;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.Arrays;
@@ -13,11 +16,24 @@ public class FileValidationService {
     private static final List<String> ALLOWED_TYPES = Arrays.asList(
             "text/csv",
             "application/vnd.ms-excel",
-            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/zip",
+            "application/x-zip-compressed",
+            "application/gzip",
+            "application/x-gzip",
+            "application/zstd"
     );
 
-    private static final List<String> ALLOWED_EXTENSIONS = Arrays.asList("csv", "xlsx", "xls");
-    private static final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
+    private static final List<String> ALLOWED_EXTENSIONS = Arrays.asList("csv", "xlsx", "xls", "zip");
+    // CSV compressés, décompressés à la lecture
+    private static final List<String> COMPRESSED_CSV_SUFFIXES = Arrays.asList(".csv.gz", ".csv.zst");
+
+    @Value("${file.upload.max-size:10MB}")
+    private DataSize maxFileSize;
+
+    // Fichiers reçus par morceaux : jamais chargés en mémoire, la limite peut être bien plus haute
+    @Value("${file.upload.chunked.max-size:10GB}")
+    private DataSize maxChunkedFileSize;
 
     public ValidationResult validateFile(MultipartFile file, String entityType) {
         ValidationResult result = new ValidationResult();
@@ -28,27 +44,54 @@ public class FileValidationService {
             return result;
         }
 
+        validate(result, file.getOriginalFilename(), file.getSize(), maxFileSize, entityType);
+
+        // Vérifier le type MIME (optionnel, peut être imprécis)
+        String contentType = file.getContentType();
+        if (contentType != null && !ALLOWED_TYPES.contains(contentType)) {
+            result.addWarning("Le type MIME du fichier est suspect: " + contentType);
+        }
+
+        return result;
+    }
+
+    /**
+     * Contrôles d'un fichier envoyé par morceaux, avec la limite file.upload.chunked.max-size.
+     *
+     * @param size taille annoncée ou reçue, null si elle n'est pas encore connue
+     */
+    public ValidationResult validateChunkedUpload(String filename, Long size, String entityType) {
+        ValidationResult result = new ValidationResult();
+        result.setValid(true);
+        validate(result, filename, size != null ? size : 0, maxChunkedFileSize, entityType);
+        return result;
+    }
+
+    public long getMaxChunkedFileSize() {
+        return maxChunkedFileSize.toBytes();
+    }
+
+    private void validate(ValidationResult result, String originalFilename, long size, DataSize limit,
+                          String entityType) {
         // Vérifier la taille
-        if (file.getSize() > MAX_FILE_SIZE) {
-            result.addError("La taille du fichier dépasse la limite de 10MB");
+        if (size > limit.toBytes()) {
+            result.addError("La taille du fichier dépasse la limite de " + limit);
         }
 
         // Vérifier l'extension
-        String originalFilename = file.getOriginalFilename();
         if (originalFilename == null) {
             result.addError("Le nom du fichier est invalide");
-            return result;
+            return;
         }
 
+        String lowerName = originalFilename.toLowerCase();
+        boolean compressedCsv = COMPRESSED_CSV_SUFFIXES.stream().anyMatch(lowerName::endsWith);
         String extension = getFileExtension(originalFilename);
-        if (!ALLOWED_EXTENSIONS.contains(extension.toLowerCase())) {
-            result.addError("Le type de fichier n'est pas supporté. Types autorisés: CSV, XLS, XLSX");
+        if (!compressedCsv && !ALLOWED_EXTENSIONS.contains(extension.toLowerCase())) {
+            result.addError("Le type de fichier n'est pas supporté. Types autorisés: CSV, CSV.GZ, CSV.ZST, XLS, XLSX, ZIP");
         }
-
-        // Vérifier le type MIME (optionnel, peut être imprécis)
-        String contentType = file.getContentType();
-        if (contentType != null && !ALLOWED_TYPES.contains(contentType)) {
-            result.addWarning("Le type MIME du fichier est suspect: " + contentType);
+        if (lowerName.endsWith(".zst") && !ZstdUtils.isZstdCompressionAvailable()) {
+            result.addError("La décompression zstd n'est pas disponible sur ce serveur");
         }
 
         // Vérifier le type d'entité
@@ -56,8 +99,6 @@ public class FileValidationService {
         if (!validEntityTypes.contains(entityType)) {
             result.addError("Type d'entité invalide. Types valides: " + String.join(", ", validEntityTypes));
         }
-
-        return result;
     }
 
     private String getFileExtension(String filename) {
@@ -68,5 +109,3 @@ public class FileValidationService {
         return filename.substring(lastDotIndex + 1);
     }
 }
-
-
@@ -0,0 +1,285 @@
+package ens.edupath.ingestion.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.neo4j.core.Neo4jClient;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static ens.edupath.ingestion.service.RecordSchema.Column.*;
+
+/**
+ * Écrit les enregistrements dans le graphe par lots : une requête UNWIND ... MERGE par type de
+ * nœud au lieu d'un findByXxxId + save() par ligne.
+ *
+ * Les voies de traitement parallèles écrivent sur les mêmes modules et étudiants : les lignes de
+ * chaque requête sont triées par identifiant pour que toutes les transactions verrouillent les
+ * nœuds dans le même ordre, et une requête en échec passager (interblocage, délai) est relancée.
+ */
+@Service
+public class GraphBatchWriter {
+
+    private static final String UPSERT_STUDENTS = """
+            UNWIND $rows AS row
+            MERGE (s:Student {studentId: row.studentId})
+            SET s += row.properties
+            """;
+
+    private static final String UPSERT_MODULES = """
+            UNWIND $rows AS row
+            MERGE (m:Module {moduleId: row.moduleId})
+            SET m += row.properties
+            SET m.credits = coalesce(m.credits, 0)
+            """;
+
+    private static final String UPSERT_EVALUATIONS = """
+            UNWIND $rows AS row
+            MATCH (s:Student {studentId: row.studentId})
+            MATCH (m:Module {moduleId: row.moduleId})
+            MERGE (e:Evaluation {evaluationId: row.evaluationId})
+            SET e += row.properties
+            MERGE (s)-[:HAS_EVALUATION]->(e)
+            MERGE (m)-[:EVALUATES]->(e)
+            """;
+
+    private static final String UPSERT_ACTIVITIES = """
+            UNWIND $rows AS row
+            MATCH (s:Student {studentId: row.studentId})
+            MATCH (m:Module {moduleId: row.moduleId})
+            MERGE (a:Activity {activityId: row.activityId})
+            SET a += row.properties
+            MERGE (s)-[:PARTICIPATES_IN]->(a)
+            MERGE (m)-[:HAS_ACTIVITY]->(a)
+            """;
+
+    private final Neo4jClient neo4jClient;
+    private final int batchSize;
+    private final int identityCacheSize;
+
+    @Value("${processing.graph-retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${processing.graph-retry.initial-interval-ms:200}")
+    private long initialInterval;
+
+    public GraphBatchWriter(Neo4jClient neo4jClient,
+                            @Value("${processing.batch-size:100}") int batchSize,
+                            @Value("${processing.identity-cache.max-entries:10000}") int identityCacheSize) {
+        this.neo4jClient = neo4jClient;
+        this.batchSize = Math.max(1, batchSize);
+        this.identityCacheSize = identityCacheSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Crée le cache d'identité d'une ingestion, à partager entre tous ses lots.
+     */
+    public IngestionIdentityCache newIdentityCache() {
+        return new IngestionIdentityCache(identityCacheSize);
+    }
+
+    /**
+     * Écrit un lot d'enregistrements du même type d'entité.
+     * En cas d'échec, aucune ligne du lot n'est considérée comme écrite.
+     */
+    public void write(String entityType, List<IngestionRecord> records, IngestionIdentityCache cache) {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        switch (entityType) {
+            case "User":
+                writeStudents(records, cache);
+                break;
+            case "Module":
+                writeModules(records, cache);
+                break;
+            case "Note":
+            case "Evaluation":
+                writeEvaluations(records, cache);
+                break;
+            case "Presence":
+            case "Activity":
+                writeActivities(records, cache);
+                break;
+            default:
+                throw new IllegalArgumentException("Type d'entité non supporté: " + entityType);
+        }
+    }
+
+    private void writeStudents(List<IngestionRecord> records, IngestionIdentityCache cache) {
+        Map<String, Map<String, Object>> students = new TreeMap<>();
+        for (IngestionRecord record : records) {
+            String studentId = record.get(STUDENT_ID, UUID.randomUUID().toString());
+            mergeRow(students, "studentId", studentId, GraphProperties.studentProperties(record));
+        }
+        upsertNodes(UPSERT_STUDENTS, "Student", "studentId", students, cache);
+    }
+
+    private void writeModules(List<IngestionRecord> records, IngestionIdentityCache cache) {
+        Map<String, Map<String, Object>> modules = new TreeMap<>();
+        for (IngestionRecord record : records) {
+            String moduleId = record.get(MODULE_ID, UUID.randomUUID().toString());
+            mergeRow(modules, "moduleId", moduleId, GraphProperties.moduleProperties(record));
+        }
+        upsertNodes(UPSERT_MODULES, "Module", "moduleId", modules, cache);
+    }
+
+    private void writeEvaluations(List<IngestionRecord> records, IngestionIdentityCache cache) {
+        Map<String, Map<String, Object>> students = new TreeMap<>();
+        Map<String, Map<String, Object>> modules = new TreeMap<>();
+        List<Map<String, Object>> evaluations = new ArrayList<>();
+
+        for (IngestionRecord record : records) {
+            String studentId = collectOwners(record, students, modules);
+            String moduleId = record.get(MODULE_ID);
+            if (studentId != null && moduleId != null) {
+                Map<String, Object> properties = GraphProperties.evaluationProperties(record);
+                Map<String, Object> row = new HashMap<>();
+                row.put("studentId", studentId);
+                row.put("moduleId", moduleId);
+                row.put("evaluationId", GraphProperties.evaluationId(record, studentId, moduleId, properties));
+                row.put("properties", properties);
+                evaluations.add(row);
+            }
+        }
+
+        upsertNodes(UPSERT_STUDENTS, "Student", "studentId", students, cache);
+        upsertNodes(UPSERT_MODULES, "Module", "moduleId", modules, cache);
+        run(UPSERT_EVALUATIONS, sortByOwners(evaluations));
+    }
+
+    private void writeActivities(List<IngestionRecord> records, IngestionIdentityCache cache) {
+        Map<String, Map<String, Object>> students = new TreeMap<>();
+        Map<String, Map<String, Object>> modules = new TreeMap<>();
+        List<Map<String, Object>> activities = new ArrayList<>();
+
+        for (IngestionRecord record : records) {
+            String studentId = collectOwners(record, students, modules);
+            String moduleId = record.get(MODULE_ID);
+            if (studentId != null && moduleId != null) {
+                Map<String, Object> properties = GraphProperties.activityProperties(record);
+                Map<String, Object> row = new HashMap<>();
+                row.put("studentId", studentId);
+                row.put("moduleId", moduleId);
+                row.put("activityId", GraphProperties.activityId(record, studentId, moduleId, properties));
+                row.put("properties", properties);
+                activities.add(row);
+            }
+        }
+
+        upsertNodes(UPSERT_STUDENTS, "Student", "studentId", students, cache);
+        upsertNodes(UPSERT_MODULES, "Module", "moduleId", modules, cache);
+        run(UPSERT_ACTIVITIES, sortByOwners(activities));
+    }
+
+    /**
+     * Trie les relations par module puis par étudiant, les deux extrémités verrouillées par les MERGE.
+     * Le tri est stable : les lignes d'un même nœud gardent leur ordre, la dernière l'emporte.
+     */
+    private static List<Map<String, Object>> sortByOwners(List<Map<String, Object>> rows) {
+        rows.sort(Comparator.comparing((Map<String, Object> row) -> (String) row.get("moduleId"))
+                .thenComparing(row -> (String) row.get("studentId")));
+        return rows;
+    }
+
+    /**
+     * Écrit uniquement les nœuds absents du cache d'identité ou dont une propriété a changé,
+     * puis les enregistre dans le cache une fois l'écriture réussie.
+     */
+    @SuppressWarnings("unchecked")
+    private void upsertNodes(String cypher, String label, String idKey,
+                             Map<String, Map<String, Object>> rows, IngestionIdentityCache cache) {
+        List<Map<String, Object>> changed = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Object>> entry : rows.entrySet()) {
+            Map<String, Object> properties = (Map<String, Object>) entry.getValue().get("properties");
+            if (!cache.isUpToDate(label, entry.getKey(), properties)) {
+                changed.add(entry.getValue());
+            }
+        }
+
+        run(cypher, changed);
+
+        for (Map<String, Object> row : changed) {
+            cache.remember(label, (String) row.get(idKey), (Map<String, Object>) row.get("properties"));
+        }
+    }
+
+    /**
+     * Ajoute l'étudiant et le module référencés par une ligne d'évaluation ou d'activité.
+     *
+     * @return l'identifiant de l'étudiant, ou null s'il est absent
+     */
+    private String collectOwners(IngestionRecord record,
+                                 Map<String, Map<String, Object>> students,
+                                 Map<String, Map<String, Object>> modules) {
+        String studentId = record.get(STUDENT_ID);
+        String moduleId = record.get(MODULE_ID);
+
+        if (moduleId != null) {
+            mergeRow(modules, "moduleId", moduleId, GraphProperties.moduleProperties(record));
+        }
+        if (studentId != null) {
+            mergeRow(students, "studentId", studentId, GraphProperties.studentProperties(record));
+            return studentId;
+        }
+        return null;
+    }
+
+    /**
+     * Regroupe les lignes d'un même nœud dans le lot : les valeurs des lignes suivantes
+     * écrasent les précédentes, comme lors d'écritures successives.
+     */
+    @SuppressWarnings("unchecked")
+    private void mergeRow(Map<String, Map<String, Object>> rows, String idKey, String id,
+                          Map<String, Object> properties) {
+        Map<String, Object> row = rows.computeIfAbsent(id, key -> {
+            Map<String, Object> newRow = new HashMap<>();
+            newRow.put(idKey, key);
+            newRow.put("properties", new HashMap<String, Object>());
+            return newRow;
+        });
+        ((Map<String, Object>) row.get("properties")).putAll(properties);
+    }
+
+    /**
+     * Exécute la requête dans sa propre transaction. Une erreur passagère annule toute la transaction :
+     * la requête est relancée telle quelle, avec un délai doublé à chaque tentative.
+     */
+    private void run(String cypher, Collection<Map<String, Object>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<Map<String, Object>> bound = new ArrayList<>(rows);
+        long interval = initialInterval;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                neo4jClient.query(cypher)
+                        .bind(bound).to("rows")
+                        .run();
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !RejectedRowSink.isTransient(e)) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                interval *= 2;
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package ens.edupath.ingestion.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import static ens.edupath.ingestion.service.RecordSchema.Column.*;
+
+/**
+ * Propriétés des nœuds du graphe construites à partir d'une ligne de fichier.
+ * Seules les colonnes présentes sont incluses : avec SET n += properties, les propriétés
+ * existantes que le fichier ne fournit pas sont conservées.
+ */
+final class GraphProperties {
+
+    private GraphProperties() {
+    }
+
+    static Map<String, Object> studentProperties(IngestionRecord data) {
+        Map<String, Object> properties = new HashMap<>();
+        putIfPresent(properties, "username", data.get(USERNAME));
+        putIfPresent(properties, "email", data.get(EMAIL));
+        putIfPresent(properties, "firstName", data.get(FIRST_NAME));
+        putIfPresent(properties, "lastName", data.get(LAST_NAME));
+        return properties;
+    }
+
+    static Map<String, Object> moduleProperties(IngestionRecord data) {
+        Map<String, Object> properties = new HashMap<>();
+        putIfPresent(properties, "code", data.get(CODE));
+        putIfPresent(properties, "name", data.get(NAME));
+        putIfPresent(properties, "description", data.get(DESCRIPTION));
+
+        if (data.has(CREDITS)) {
+            properties.put("credits", data.getInt(CREDITS, 0));
+        }
+        return properties;
+    }
+
+    static Map<String, Object> evaluationProperties(IngestionRecord data) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("type", data.get(TYPE, "Exam"));
+        properties.put("title", data.get(TITLE, ""));
+
+        properties.put("score", data.getDouble(SCORE, 0.0));
+        properties.put("maxScore", data.getDouble(MAX_SCORE, 100.0));
+        putIfPresent(properties, "date", data.getDate(DATE));
+        properties.put("status", data.get(STATUS, "Completed"));
+        return properties;
+    }
+
+    static Map<String, Object> activityProperties(IngestionRecord data) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("type", data.get(TYPE, "Lecture"));
+        properties.put("title", data.get(TITLE, ""));
+        putIfPresent(properties, "date", data.getDate(DATE));
+        properties.put("duration", data.getInt(DURATION, 0));
+        properties.put("present", data.getBoolean(PRESENT, true));
+        return properties;
+    }
+
+    /**
+     * Identifiant de l'évaluation : la colonne evaluation_id si elle existe, sinon une clé
+     * déterministe (étudiant, module, type, titre, date) pour qu'un renvoi de la même ligne
+     * mette à jour le nœud existant au lieu d'en créer un nouveau.
+     */
+    static String evaluationId(IngestionRecord data, String studentId, String moduleId,
+                               Map<String, Object> properties) {
+        String evaluationId = data.get(EVALUATION_ID);
+        return evaluationId != null ? evaluationId : rowKey("Evaluation", data, studentId, moduleId, properties);
+    }
+
+    static String activityId(IngestionRecord data, String studentId, String moduleId,
+                             Map<String, Object> properties) {
+        String activityId = data.get(ACTIVITY_ID);
+        return activityId != null ? activityId : rowKey("Activity", data, studentId, moduleId, properties);
+    }
+
+    /**
+     * Identifiant du nœud écrit pour la ligne, calculé comme par les écritures mais sans
+     * compter d'erreurs de conversion dans le schéma.
+     *
+     * @return l'identifiant, ou null si la ligne n'en produit pas de stable (identifiant manquant)
+     */
+    static String nodeId(String entityType, IngestionRecord data) {
+        switch (entityType) {
+            case "User":
+                return data.get(STUDENT_ID);
+            case "Module":
+                return data.get(MODULE_ID);
+            case "Note":
+            case "Evaluation":
+                return data.has(STUDENT_ID) && data.has(MODULE_ID)
+                        ? evaluationId(data, data.get(STUDENT_ID), data.get(MODULE_ID), identityProperties(data, "Exam"))
+                        : null;
+            case "Presence":
+            case "Activity":
+                return data.has(STUDENT_ID) && data.has(MODULE_ID)
+                        ? activityId(data, data.get(STUDENT_ID), data.get(MODULE_ID), identityProperties(data, "Lecture"))
+                        : null;
+            default:
+                throw new IllegalArgumentException("Type d'entité non supporté: " + entityType);
+        }
+    }
+
+    private static Map<String, Object> identityProperties(IngestionRecord data, String defaultType) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("type", data.get(TYPE, defaultType));
+        properties.put("title", data.get(TITLE, ""));
+        String date = data.get(DATE);
+        putIfPresent(properties, "date", date != null ? LenientParser.parseDate(date) : null);
+        return properties;
+    }
+
+    private static String rowKey(String label, IngestionRecord data, String studentId, String moduleId,
+                                 Map<String, Object> properties) {
+        // Date normalisée si elle a pu être lue, texte brut sinon
+        Object date = properties.containsKey("date") ? properties.get("date") : data.get(DATE, "");
+        String key = String.join("\u001f", label, studentId, moduleId,
+                normalize(properties.get("type")), normalize(properties.get("title")), String.valueOf(date));
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static String normalize(Object value) {
+        return value == null ? "" : value.toString().trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static void putIfPresent(Map<String, Object> properties, String key, Object value) {
+        if (value != null) {
+            properties.put(key, value);
+        }
+    }
+}
@@ -1,141 +1,157 @@
 package ens.edupath.ingestion.service;
 
-import ens.edupath.ingestion.model.neo4j.Activity;
-import ens.edupath.ingestion.model.neo4j.Evaluation;
-import ens.edupath.ingestion.model.neo4j.Module;
-import ens.edupath.ingestion.model.neo4j.Student;
-import ens.edupath.ingestion.repository.neo4j.ActivityRepository;
-import ens.edupath.ingestion.repository.neo4j.EvaluationRepository;
-import ens.edupath.ingestion.repository.neo4j.ModuleRepository;
-import ens.edupath.ingestion.repository.neo4j.StudentRepository;
+import org.springframework.data.neo4j.core.Neo4jClient;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.Map;
 import java.util.UUID;
 
+import static ens.edupath.ingestion.service.RecordSchema.Column.*;
+
+/**
+ * Écritures ligne par ligne dans le graphe, utilisées quand un lot doit être rejoué pour isoler
+ * les lignes en erreur. Chaque requête ne touche que les propriétés du nœud et la relation créée :
+ * contrairement à findByXxx + save(), les relations existantes de l'étudiant ou du module ne sont
+ * ni chargées ni réécrites, et le coût d'une ligne ne dépend pas de l'historique de l'étudiant.
+ */
 @Service
-@Transactional
 public class GraphService {
 
-    private final StudentRepository studentRepository;
-    private final ModuleRepository moduleRepository;
-    private final EvaluationRepository evaluationRepository;
-    private final ActivityRepository activityRepository;
-
-    public GraphService(StudentRepository studentRepository,
-                       ModuleRepository moduleRepository,
-                       EvaluationRepository evaluationRepository,
-                       ActivityRepository activityRepository) {
-        this.studentRepository = studentRepository;
-        this.moduleRepository = moduleRepository;
-        this.evaluationRepository = evaluationRepository;
-        this.activityRepository = activityRepository;
+    private static final String UPSERT_STUDENT = """
+            MERGE (s:Student {studentId: $id})
+            SET s += $properties
+            """;
+
+    private static final String UPSERT_MODULE = """
+            MERGE (m:Module {moduleId: $id})
+            SET m += $properties
+            SET m.credits = coalesce(m.credits, 0)
+            """;
+
+    private static final String UPSERT_EVALUATION = """
+            MATCH (s:Student {studentId: $studentId})
+            MATCH (m:Module {moduleId: $moduleId})
+            MERGE (e:Evaluation {evaluationId: $id})
+            SET e += $properties
+            MERGE (s)-[:HAS_EVALUATION]->(e)
+            MERGE (m)-[:EVALUATES]->(e)
+            """;
+
+    private static final String UPSERT_ACTIVITY = """
+            MATCH (s:Student {studentId: $studentId})
+            MATCH (m:Module {moduleId: $moduleId})
+            MERGE (a:Activity {activityId: $id})
+            SET a += $properties
+            MERGE (s)-[:PARTICIPATES_IN]->(a)
+            MERGE (m)-[:HAS_ACTIVITY]->(a)
+            """;
+
+    // Lignes disparues du fichier source d'un jeu de données ingéré en delta
+    private static final String FLAG_REMOVED = """
+            UNWIND $ids AS id
+            MATCH (n:%s {%s: id})
+            SET n.removedFromSource = true, n.removedFromDataset = $dataset, n.removedAt = datetime()
+            """;
+
+    private static final String CLEAR_REMOVED = """
+            UNWIND $ids AS id
+            MATCH (n:%s {%s: id})
+            WHERE n.removedFromSource IS NOT NULL
+            REMOVE n.removedFromSource, n.removedFromDataset, n.removedAt
+            """;
+
+    private final Neo4jClient neo4jClient;
+
+    public GraphService(Neo4jClient neo4jClient) {
+        this.neo4jClient = neo4jClient;
     }
 
-    public Student createOrUpdateStudent(Map<String, String> data) {
-        String studentId = data.getOrDefault("student_id", data.getOrDefault("id", UUID.randomUUID().toString()));
-        
-        Student student = studentRepository.findByStudentId(studentId)
-                .orElse(new Student());
-        
-        student.setStudentId(studentId);
-        student.setUsername(data.getOrDefault("username", student.getUsername()));
-        student.setEmail(data.getOrDefault("email", student.getEmail()));
-        student.setFirstName(data.getOrDefault("first_name", data.getOrDefault("firstname", student.getFirstName())));
-        student.setLastName(data.getOrDefault("last_name", data.getOrDefault("lastname", student.getLastName())));
-        
-        return studentRepository.save(student);
+    /**
+     * @return l'identifiant de l'étudiant écrit
+     */
+    public String createOrUpdateStudent(IngestionRecord data) {
+        String studentId = data.get(STUDENT_ID, UUID.randomUUID().toString());
+        neo4jClient.query(UPSERT_STUDENT)
+                .bind(studentId).to("id")
+                .bind(GraphProperties.studentProperties(data)).to("properties")
+                .run();
+        return studentId;
     }
 
-    public Module createOrUpdateModule(Map<String, String> data) {
-        String moduleId = data.getOrDefault("module_id", data.getOrDefault("id", UUID.randomUUID().toString()));
-        
-        Module module = moduleRepository.findByModuleId(moduleId)
-                .orElse(new Module());
-        
-        module.setModuleId(moduleId);
-        module.setCode(data.getOrDefault("code", module.getCode()));
-        module.setName(data.getOrDefault("name", data.getOrDefault("module_name", module.getName())));
-        module.setDescription(data.getOrDefault("description", module.getDescription()));
-        
-        String creditsStr = data.getOrDefault("credits", "0");
-        try {
-            module.setCredits(Integer.parseInt(creditsStr));
-        } catch (NumberFormatException e) {
-            module.setCredits(0);
-        }
-        
-        return moduleRepository.save(module);
+    /**
+     * @return l'identifiant du module écrit
+     */
+    public String createOrUpdateModule(IngestionRecord data) {
+        String moduleId = data.get(MODULE_ID, UUID.randomUUID().toString());
+        neo4jClient.query(UPSERT_MODULE)
+                .bind(moduleId).to("id")
+                .bind(GraphProperties.moduleProperties(data)).to("properties")
+                .run();
+        return moduleId;
     }
 
-    public Evaluation createEvaluation(Map<String, String> data, Student student, Module module) {
-        String evaluationId = data.getOrDefault("evaluation_id", data.getOrDefault("id", UUID.randomUUID().toString()));
-        
-        Evaluation evaluation = new Evaluation();
-        evaluation.setEvaluationId(evaluationId);
-        evaluation.setType(data.getOrDefault("type", data.getOrDefault("evaluation_type", "Exam")));
-        evaluation.setTitle(data.getOrDefault("title", data.getOrDefault("evaluation_title", "")));
-        
-        String scoreStr = data.getOrDefault("score", "0");
-        String maxScoreStr = data.getOrDefault("max_score", data.getOrDefault("maxscore", "100"));
-        try {
-            evaluation.setScore(Double.parseDouble(scoreStr));
-            evaluation.setMaxScore(Double.parseDouble(maxScoreStr));
-        } catch (NumberFormatException e) {
-            evaluation.setScore(0.0);
-            evaluation.setMaxScore(100.0);
-        }
-        
-        String dateStr = data.getOrDefault("date", data.getOrDefault("evaluation_date", ""));
-        if (!dateStr.isEmpty()) {
-            try {
-                evaluation.setDate(LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_DATE_TIME));
-            } catch (Exception e) {
-                // Ignorer si le format n'est pas valide
-            }
+    public String createEvaluation(IngestionRecord data, String studentId, String moduleId) {
+        Map<String, Object> properties = GraphProperties.evaluationProperties(data);
+        String evaluationId = GraphProperties.evaluationId(data, studentId, moduleId, properties);
+        neo4jClient.query(UPSERT_EVALUATION)
+                .bind(studentId).to("studentId")
+                .bind(moduleId).to("moduleId")
+                .bind(evaluationId).to("id")
+                .bind(properties).to("properties")
+                .run();
+        return evaluationId;
+    }
+
+    /**
+     * Marque les nœuds dont la ligne a disparu du fichier source, sans les supprimer.
+     */
+    public void flagRemoved(String entityType, Collection<String> ids, String dataset) {
+        if (!ids.isEmpty()) {
+            neo4jClient.query(nodeQuery(FLAG_REMOVED, entityType))
+                    .bind(ids).to("ids")
+                    .bind(dataset).to("dataset")
+                    .run();
         }
-        
-        evaluation.setStatus(data.getOrDefault("status", "Completed"));
-        evaluation.setStudent(student);
-        evaluation.setModule(module);
-        
-        return evaluationRepository.save(evaluation);
     }
 
-    public Activity createActivity(Map<String, String> data, Student student, Module module) {
-        String activityId = data.getOrDefault("activity_id", data.getOrDefault("id", UUID.randomUUID().toString()));
-        
-        Activity activity = new Activity();
-        activity.setActivityId(activityId);
-        activity.setType(data.getOrDefault("type", data.getOrDefault("activity_type", "Lecture")));
-        activity.setTitle(data.getOrDefault("title", data.getOrDefault("activity_title", "")));
-        
-        String dateStr = data.getOrDefault("date", data.getOrDefault("activity_date", ""));
-        if (!dateStr.isEmpty()) {
-            try {
-                activity.setDate(LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_DATE_TIME));
-            } catch (Exception e) {
-                // Ignorer si le format n'est pas valide
-            }
+    /**
+     * Retire la marque des nœuds dont la ligne est réapparue.
+     */
+    public void clearRemoved(String entityType, Collection<String> ids) {
+        if (!ids.isEmpty()) {
+            neo4jClient.query(nodeQuery(CLEAR_REMOVED, entityType))
+                    .bind(ids).to("ids")
+                    .run();
         }
-        
-        String durationStr = data.getOrDefault("duration", "0");
-        try {
-            activity.setDuration(Integer.parseInt(durationStr));
-        } catch (NumberFormatException e) {
-            activity.setDuration(0);
+    }
+
+    private static String nodeQuery(String template, String entityType) {
+        switch (entityType) {
+            case "User":
+                return String.format(template, "Student", "studentId");
+            case "Module":
+                return String.format(template, "Module", "moduleId");
+            case "Note":
+            case "Evaluation":
+                return String.format(template, "Evaluation", "evaluationId");
+            case "Presence":
+            case "Activity":
+                return String.format(template, "Activity", "activityId");
+            default:
+                throw new IllegalArgumentException("Type d'entité non supporté: " + entityType);
         }
-        
-        String presentStr = data.getOrDefault("present", data.getOrDefault("presence", "true"));
-        activity.setPresent(Boolean.parseBoolean(presentStr.toLowerCase()));
-        
-        activity.setStudent(student);
-        activity.setModule(module);
-        
-        return activityRepository.save(activity);
     }
-}
 
+    public String createActivity(IngestionRecord data, String studentId, String moduleId) {
+        Map<String, Object> properties = GraphProperties.activityProperties(data);
+        String activityId = GraphProperties.activityId(data, studentId, moduleId, properties);
+        neo4jClient.query(UPSERT_ACTIVITY)
+                .bind(studentId).to("studentId")
+                .bind(moduleId).to("moduleId")
+                .bind(activityId).to("id")
+                .bind(properties).to("properties")
+                .run();
+        return activityId;
+    }
+}
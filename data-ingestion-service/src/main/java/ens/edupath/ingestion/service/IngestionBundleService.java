@@ -0,0 +1,317 @@
+package ens.edupath.ingestion.service;
+
+import ens.edupath.ingestion.model.jpa.IngestionLog;
+import ens.edupath.ingestion.repository.jpa.IngestionLogRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Découpe un classeur multi-feuilles ou une archive ZIP en sous-logs, un par feuille ou par
+ * fichier, traités en parallèle par les workers de la file d'ingestion. Le log parent agrège
+ * les compteurs de ses sous-logs et n'est terminé qu'une fois tous ses sous-jobs finis.
+ */
+@Service
+public class IngestionBundleService {
+
+    private final ExcelParserService excelParserService;
+    private final IngestionFileStore ingestionFileStore;
+    private final IngestionLogRepository ingestionLogRepository;
+    private final IngestionJobService ingestionJobService;
+    private final NotificationService notificationService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${processing.bundles.all-sheets:true}")
+    private boolean allSheets;
+
+    @Value("${processing.bundles.max-entries:200}")
+    private int maxEntries;
+
+    // Mêmes limites que pour les CSV compressés, appliquées à chaque entrée et à l'archive entière
+    @Value("${file.upload.max-decompressed-size:2GB}")
+    private DataSize maxDecompressedSize;
+
+    @Value("${file.upload.max-compression-ratio:100}")
+    private int maxCompressionRatio;
+
+    public IngestionBundleService(ExcelParserService excelParserService,
+                                  IngestionFileStore ingestionFileStore,
+                                  IngestionLogRepository ingestionLogRepository,
+                                  IngestionJobService ingestionJobService,
+                                  NotificationService notificationService,
+                                  TransactionTemplate transactionTemplate) {
+        this.excelParserService = excelParserService;
+        this.ingestionFileStore = ingestionFileStore;
+        this.ingestionLogRepository = ingestionLogRepository;
+        this.ingestionJobService = ingestionJobService;
+        this.notificationService = notificationService;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Crée et met en file les sous-logs du fichier conservé pour ce log. L'archive est extraite
+     * hors transaction ; seuls l'enregistrement des sous-logs et leur mise en file sont atomiques.
+     *
+     * @return les sous-logs créés, vide si le fichier se traite en un seul job
+     */
+    public List<IngestionLog> split(IngestionLog parent) throws IOException {
+        if (parent.getParentLogId() != null) {
+            return List.of(); // Sous-log : déjà une seule feuille ou un seul fichier
+        }
+        Path path = Paths.get(parent.getStoredFilePath());
+        List<IngestionLog> children = new ArrayList<>();
+
+        if (isZip(parent.getFileName())) {
+            splitZip(parent, path, children);
+            if (children.isEmpty()) {
+                throw new IOException("Aucun fichier CSV ou Excel dans l'archive");
+            }
+        } else if (isExcel(parent.getFileName())) {
+            addSheets(parent, parent.getFileName(), path, parent.getContentHash(), children);
+            if (children.size() < 2) {
+                return List.of(); // Une seule feuille : traitement habituel
+            }
+        } else {
+            return List.of();
+        }
+
+        try {
+            return transactionTemplate.execute(status -> enqueueChildren(parent, children));
+        } catch (RuntimeException e) {
+            // Fichiers extraits de l'archive : aucun sous-log ne les référence
+            children.stream()
+                    .map(IngestionLog::getStoredFilePath)
+                    .filter(stored -> !stored.equals(parent.getStoredFilePath()))
+                    .distinct()
+                    .forEach(ingestionFileStore::delete);
+            throw e;
+        }
+    }
+
+    private List<IngestionLog> enqueueChildren(IngestionLog parent, List<IngestionLog> children) {
+        parent.setSubJobCount(children.size());
+        parent.setStatus(IngestionLog.Status.PROCESSING);
+        parent.setTotalRecords(0);
+        parent.setSuccessfulRecords(0);
+        parent.setFailedRecords(0);
+        ingestionLogRepository.save(parent);
+
+        List<IngestionLog> saved = ingestionLogRepository.saveAll(children);
+        for (IngestionLog child : saved) {
+            ingestionJobService.enqueue(child.getId());
+        }
+        return saved;
+    }
+
+    private void splitZip(IngestionLog parent, Path path, List<IngestionLog> children) throws IOException {
+        List<String> extracted = new ArrayList<>();
+        int ratio = Math.max(1, maxCompressionRatio);
+        long archiveLimit = DecompressionLimitInputStream.limit(Files.size(path), maxDecompressedSize.toBytes(), ratio);
+        long inflated = 0;
+        try (ZipFile zip = new ZipFile(path.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !isIngestibleEntry(entry.getName())) {
+                    continue;
+                }
+                if (extracted.size() >= maxEntries) {
+                    throw new IOException("L'archive contient plus de " + maxEntries + " fichiers");
+                }
+
+                // La taille annoncée par l'entrée n'est pas fiable : seuls les octets lus comptent
+                long compressedSize = entry.getCompressedSize() >= 0 ? entry.getCompressedSize() : Files.size(path);
+                long entryLimit = Math.min(
+                        DecompressionLimitInputStream.limit(compressedSize, maxDecompressedSize.toBytes(), ratio),
+                        archiveLimit - inflated);
+                if (entryLimit <= 0) {
+                    throw new IOException("Archive décompressée trop volumineuse: plus de " + archiveLimit + " octets");
+                }
+
+                IngestionFileStore.StoredFile stored;
+                try (DecompressionLimitInputStream in = new DecompressionLimitInputStream(
+                        zip.getInputStream(entry), entryLimit, compressedSize)) {
+                    stored = ingestionFileStore.store(in, entry.getName());
+                    inflated += in.getCount();
+                }
+                extracted.add(stored.path().toString());
+
+                if (isExcel(entry.getName())) {
+                    addSheets(parent, entry.getName(), stored.path(), stored.sha256(), children);
+                } else {
+                    children.add(newChild(parent, entry.getName(), null, stored));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            extracted.forEach(ingestionFileStore::delete);
+            throw e;
+        }
+    }
+
+    private void addSheets(IngestionLog parent, String fileName, Path path, String contentHash,
+                           List<IngestionLog> children) throws IOException {
+        List<String> sheets = allSheets
+                ? excelParserService.sheetNames(path, fileName.toLowerCase(Locale.ROOT))
+                : List.of();
+        if (sheets.size() < 2) {
+            children.add(newChild(parent, fileName, null, path, contentHash));
+            return;
+        }
+        for (String sheet : sheets) {
+            children.add(newChild(parent, fileName, sheet, path, contentHash));
+        }
+    }
+
+    private IngestionLog newChild(IngestionLog parent, String fileName, String sheetName,
+                                  IngestionFileStore.StoredFile stored) {
+        return newChild(parent, fileName, sheetName, stored.path(), stored.sha256());
+    }
+
+    private IngestionLog newChild(IngestionLog parent, String fileName, String sheetName,
+                                  Path path, String contentHash) {
+        IngestionLog child = new IngestionLog();
+        child.setParentLogId(parent.getId());
+        child.setFileName(fileName);
+        child.setFileType(extension(fileName));
+        child.setSheetName(sheetName);
+        child.setEntityType(parent.getEntityType());
+        child.setStatus(IngestionLog.Status.PENDING);
+        child.setContentHash(contentHash);
+        child.setStoredFilePath(path.toString());
+        child.setCheckpointOffset(0);
+        if (parent.getDataset() != null) {
+            // Chaque feuille ou fichier a son propre index de lignes : les disparitions se détectent par sous-log
+            child.setDataset(parent.getDataset() + (parent.getFileName().equals(fileName) ? "" : "/" + fileName)
+                    + (sheetName != null ? "#" + sheetName : ""));
+            child.setFlagRemoved(parent.getFlagRemoved());
+        }
+        return child;
+    }
+
+    /**
+     * Recalcule les compteurs du parent après la fin d'un sous-job. Le statut final et la
+     * notification ne sont produits qu'au passage du parent dans un état terminal ; un sous-job
+     * repris plus tard remet le parent en cours de traitement jusqu'à sa fin.
+     */
+    @Transactional
+    public void childFinished(Long parentLogId) {
+        IngestionLog parent = ingestionLogRepository.lockById(parentLogId).orElse(null);
+        if (parent == null) {
+            return;
+        }
+
+        List<IngestionLog> children = ingestionLogRepository.findByParentLogIdOrderByIdAsc(parentLogId);
+        int total = 0;
+        int successful = 0;
+        int failed = 0;
+        int forwarded = 0;
+        int forwardFailed = 0;
+        int finished = 0;
+        int failedChildren = 0;
+        int droppedRejects = 0;
+        Map<String, Long> columnErrors = new TreeMap<>();
+
+        for (IngestionLog child : children) {
+            total += child.getTotalRecords() != null ? child.getTotalRecords() : 0;
+            successful += child.getSuccessfulRecords() != null ? child.getSuccessfulRecords() : 0;
+            failed += child.getFailedRecords() != null ? child.getFailedRecords() : 0;
+            forwarded += child.getForwardedRecords() != null ? child.getForwardedRecords() : 0;
+            forwardFailed += child.getForwardFailedRecords() != null ? child.getForwardFailedRecords() : 0;
+            if (child.getColumnErrors() != null) {
+                child.getColumnErrors().forEach((column, count) -> columnErrors.merge(column, count, Long::sum));
+            }
+            droppedRejects += child.getDroppedRejects() != null ? child.getDroppedRejects() : 0;
+            if (child.getStatus() == IngestionLog.Status.FAILED) {
+                failedChildren++;
+            }
+            if (child.getStatus() != IngestionLog.Status.PENDING
+                    && child.getStatus() != IngestionLog.Status.PROCESSING) {
+                finished++;
+            }
+        }
+
+        parent.setTotalRecords(total);
+        parent.setSuccessfulRecords(successful);
+        parent.setFailedRecords(failed);
+        parent.setForwardedRecords(forwarded);
+        parent.setForwardFailedRecords(forwardFailed);
+        parent.setColumnErrors(columnErrors);
+        parent.setDroppedRejects(droppedRejects > 0 ? droppedRejects : null);
+
+        IngestionLog.Status previous = parent.getStatus();
+        if (finished < children.size()) {
+            parent.setStatus(IngestionLog.Status.PROCESSING);
+            ingestionLogRepository.save(parent);
+            return;
+        }
+
+        if (failedChildren == 0 && failed == 0 && forwardFailed == 0) {
+            parent.setStatus(IngestionLog.Status.COMPLETED);
+        } else if (successful > 0) {
+            parent.setStatus(IngestionLog.Status.PARTIALLY_COMPLETED);
+        } else {
+            parent.setStatus(IngestionLog.Status.FAILED);
+        }
+        parent.setErrorMessage(failedChildren > 0
+                ? failedChildren + " sous-job(s) sur " + children.size() + " en échec"
+                : null);
+        parent = ingestionLogRepository.save(parent);
+
+        if (failedChildren == 0) {
+            // Plus de reprise possible : les fichiers extraits et l'original peuvent être supprimés
+            Set<String> paths = new LinkedHashSet<>();
+            children.forEach(child -> paths.add(child.getStoredFilePath()));
+            paths.add(parent.getStoredFilePath());
+            paths.forEach(ingestionFileStore::delete);
+        }
+
+        if (previous != parent.getStatus()) {
+            notificationService.sendIngestionNotification(parent);
+        }
+    }
+
+    private boolean isIngestibleEntry(String entryName) {
+        String name = entryName.substring(entryName.lastIndexOf('/') + 1);
+        // Métadonnées ajoutées par macOS et fichiers cachés
+        if (entryName.startsWith("__MACOSX/") || name.startsWith(".")) {
+            return false;
+        }
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".csv") || isExcel(lower);
+    }
+
+    private static boolean isZip(String fileName) {
+        return fileName != null && fileName.toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+
+    private static boolean isExcel(String fileName) {
+        if (fileName == null) {
+            return false;
+        }
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".xlsx") || lower.endsWith(".xls");
+    }
+
+    private static String extension(String fileName) {
+        int lastDotIndex = fileName.lastIndexOf('.');
+        return lastDotIndex == -1 ? "" : fileName.substring(lastDotIndex + 1);
+    }
+}
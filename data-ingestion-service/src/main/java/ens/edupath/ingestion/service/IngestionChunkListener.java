@@ -0,0 +1,110 @@
+package ens.edupath.ingestion.service;
+
+import ens.edupath.ingestion.config.RabbitMQConfig;
+import ens.edupath.ingestion.model.jpa.IngestionChunk;
+import ens.edupath.ingestion.model.jpa.IngestionLog;
+import ens.edupath.ingestion.repository.jpa.IngestionLogRepository;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Traite les morceaux de fichiers distribués par {@link IngestionChunkService}, quelle que soit
+ * l'instance qui a reçu le fichier. Un échec non définitif remet le message en file.
+ */
+@Component
+public class IngestionChunkListener {
+
+    private final IngestionChunkService ingestionChunkService;
+    private final IngestionLogRepository ingestionLogRepository;
+    private final DataIngestionService dataIngestionService;
+    private final String workerId;
+
+    @Value("${processing.distributed.heartbeat-interval:PT30S}")
+    private Duration heartbeatInterval;
+
+    public IngestionChunkListener(IngestionChunkService ingestionChunkService,
+                                  IngestionLogRepository ingestionLogRepository,
+                                  DataIngestionService dataIngestionService) {
+        this.ingestionChunkService = ingestionChunkService;
+        this.ingestionLogRepository = ingestionLogRepository;
+        this.dataIngestionService = dataIngestionService;
+        this.workerId = hostname() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @RabbitListener(queues = RabbitMQConfig.CHUNK_QUEUE, containerFactory = "ingestionChunkListenerFactory")
+    public void onChunk(Map<String, Object> message) {
+        Object id = message.get("chunkId");
+        if (!(id instanceof Number)) {
+            System.err.println("Message de morceau sans chunkId ignoré: " + message);
+            return;
+        }
+
+        IngestionChunk chunk = ingestionChunkService.claim(((Number) id).longValue(), workerId);
+        if (chunk == null) {
+            return; // Morceau supprimé, ou déjà en cours sur une instance vivante
+        }
+        if (chunk.getStatus() != IngestionChunk.Status.RUNNING) {
+            // Déjà traité par une autre instance, ou tentatives épuisées
+            ingestionChunkService.finishParentIfDone(chunk.getLogId());
+            return;
+        }
+
+        try {
+            IngestionLog log = ingestionLogRepository.findById(chunk.getLogId())
+                    .orElseThrow(() -> new IllegalStateException("Log d'ingestion introuvable: " + chunk.getLogId()));
+            dataIngestionService.processChunk(log, chunk, heartbeat(chunk));
+            ingestionChunkService.complete(chunk);
+        } catch (ChunkLostException e) {
+            // Repris par une autre instance : ses compteurs et son état ne nous appartiennent plus
+            System.err.println(e.getMessage());
+            return;
+        } catch (Exception e) {
+            System.err.println("Erreur sur le morceau " + chunk.getChunkIndex() + " de l'ingestion "
+                    + chunk.getLogId() + " (tentative " + chunk.getAttempts() + "): " + e.getMessage());
+            if (!ingestionChunkService.fail(chunk, e.getMessage())) {
+                throw new IllegalStateException("Morceau " + chunk.getId() + " à retenter", e);
+            }
+        }
+
+        ingestionChunkService.finishParentIfDone(chunk.getLogId());
+    }
+
+    /**
+     * Battement de cœur appelé après chaque lot, envoyé au plus une fois par heartbeat-interval.
+     * Il interrompt le traitement si le morceau a été repris entre-temps.
+     */
+    private Runnable heartbeat(IngestionChunk chunk) {
+        long[] last = {System.nanoTime()};
+        return () -> {
+            long now = System.nanoTime();
+            if (now - last[0] < heartbeatInterval.toNanos()) {
+                return;
+            }
+            last[0] = now;
+            if (!ingestionChunkService.heartbeat(chunk)) {
+                throw new ChunkLostException("Morceau " + chunk.getChunkIndex() + " de l'ingestion "
+                        + chunk.getLogId() + " repris par une autre instance, traitement interrompu");
+            }
+        };
+    }
+
+    private static class ChunkLostException extends RuntimeException {
+        ChunkLostException(String message) {
+            super(message);
+        }
+    }
+
+    private static String hostname() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "ingestion";
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package ens.edupath.ingestion.service;
+
+import ens.edupath.ingestion.model.jpa.IngestionChunk;
+import ens.edupath.ingestion.model.jpa.IngestionLog;
+import ens.edupath.ingestion.repository.jpa.IngestionChunkRepository;
+import ens.edupath.ingestion.repository.jpa.IngestionLogRepository;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mode coordinateur pour les gros CSV : l'instance qui reçoit le fichier le découpe en plages
+ * d'octets alignées sur des fins de ligne et publie un message par morceau. Toutes les instances
+ * consomment ces messages ; le log du fichier agrège les compteurs des morceaux et n'est terminé
+ * qu'une fois tous ses morceaux acquittés.
+ *
+ * Le fichier conservé et les fichiers de rejets doivent être sur un stockage partagé entre les instances.
+ */
+@Service
+public class IngestionChunkService {
+
+    // Conditionnelle : si plusieurs instances la lancent en même temps, une seule modifie chaque ligne
+    private static final String RESET_STALE = """
+            UPDATE ingestion_chunks SET status = 'QUEUED', worker_id = NULL, updated_at = ?
+            WHERE (status = 'RUNNING' AND (heartbeat_at IS NULL OR heartbeat_at < ?))
+               OR (status = 'QUEUED' AND updated_at < ?)
+            RETURNING id, log_id, chunk_index
+            """;
+
+    private final IngestionChunkRepository ingestionChunkRepository;
+    private final IngestionLogRepository ingestionLogRepository;
+    private final IngestionFileReader ingestionFileReader;
+    private final IngestionFileStore ingestionFileStore;
+    private final IngestionBundleService ingestionBundleService;
+    private final RejectedRowSink rejectedRowSink;
+    private final NotificationService notificationService;
+    private final RabbitTemplate rabbitTemplate;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.rabbitmq.template.exchange}")
+    private String exchange;
+
+    @Value("${processing.distributed.routing-key:ingestion.chunk}")
+    private String routingKey;
+
+    @Value("${processing.distributed.enabled:false}")
+    private boolean enabled;
+
+    @Value("${processing.distributed.rows-per-chunk:100000}")
+    private int rowsPerChunk;
+
+    @Value("${processing.distributed.min-file-size:50MB}")
+    private DataSize minFileSize;
+
+    @Value("${processing.distributed.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${processing.distributed.stale-after:PT15M}")
+    private Duration staleAfter;
+
+    public IngestionChunkService(IngestionChunkRepository ingestionChunkRepository,
+                                 IngestionLogRepository ingestionLogRepository,
+                                 IngestionFileReader ingestionFileReader,
+                                 IngestionFileStore ingestionFileStore,
+                                 IngestionBundleService ingestionBundleService,
+                                 RejectedRowSink rejectedRowSink,
+                                 NotificationService notificationService,
+                                 RabbitTemplate rabbitTemplate,
+                                 JdbcTemplate jdbcTemplate) {
+        this.ingestionChunkRepository = ingestionChunkRepository;
+        this.ingestionLogRepository = ingestionLogRepository;
+        this.ingestionFileReader = ingestionFileReader;
+        this.ingestionFileStore = ingestionFileStore;
+        this.ingestionBundleService = ingestionBundleService;
+        this.rejectedRowSink = rejectedRowSink;
+        this.notificationService = notificationService;
+        this.rabbitTemplate = rabbitTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Seuls les CSV non compressés se découpent par plages d'octets ; un log déjà découpé
+     * (parent de sous-jobs ou de morceaux) n'est jamais redistribué.
+     */
+    public boolean shouldDistribute(IngestionLog log) {
+        // En delta, les disparitions se détectent sur le fichier entier : pas de découpage
+        if (!enabled || log.getSubJobCount() != null || log.getSheetName() != null || log.getDataset() != null
+                || log.getFileName() == null || !log.getFileName().toLowerCase(Locale.ROOT).endsWith(".csv")
+                || !ingestionFileStore.exists(log.getStoredFilePath())) {
+            return false;
+        }
+        try {
+            return Files.size(Paths.get(log.getStoredFilePath())) >= minFileSize.toBytes();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Découpe le fichier du log en morceaux et les publie après validation de la transaction.
+     *
+     * @return le nombre de morceaux publiés, 0 si le fichier se traite en un seul job
+     */
+    @Transactional
+    public int distribute(IngestionLog log) throws IOException {
+        IngestionFileReader.CsvLayout layout = ingestionFileReader.scanCsv(Paths.get(log.getStoredFilePath()), rowsPerChunk);
+        if (layout.chunkCount() < 2) {
+            return 0;
+        }
+
+        List<IngestionChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < layout.chunkCount(); i++) {
+            IngestionChunk chunk = new IngestionChunk();
+            chunk.setLogId(log.getId());
+            chunk.setChunkIndex(i);
+            chunk.setHeaderLength(layout.headerLength());
+            chunk.setStartOffset(layout.boundaries().get(i));
+            chunk.setEndOffset(layout.boundaries().get(i + 1));
+            chunk.setStatus(IngestionChunk.Status.QUEUED);
+            chunk.setAttempts(0);
+            chunks.add(chunk);
+        }
+        chunks = ingestionChunkRepository.saveAll(chunks);
+
+        log.setSubJobCount(chunks.size());
+        log.setStatus(IngestionLog.Status.PROCESSING);
+        log.setTotalRecords(0);
+        log.setSuccessfulRecords(0);
+        log.setFailedRecords(0);
+        ingestionLogRepository.save(log);
+
+        List<Long> chunkIds = chunks.stream().map(IngestionChunk::getId).toList();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                chunkIds.forEach(IngestionChunkService.this::publish);
+            }
+        });
+        return chunks.size();
+    }
+
+    /**
+     * Réserve le morceau pour cette instance.
+     *
+     * @return le morceau, RUNNING s'il est à traiter par cette instance, terminé s'il l'est déjà
+     * ou vient d'épuiser ses tentatives ; null s'il n'existe plus ou si une instance vivante le traite
+     */
+    @Transactional
+    public IngestionChunk claim(Long chunkId, String workerId) {
+        IngestionChunk chunk = ingestionChunkRepository.lockById(chunkId).orElse(null);
+        if (chunk == null || chunk.getStatus() == IngestionChunk.Status.COMPLETED
+                || chunk.getStatus() == IngestionChunk.Status.FAILED) {
+            return chunk;
+        }
+        if (chunk.getStatus() == IngestionChunk.Status.RUNNING && isAlive(chunk)) {
+            // Message en double : le morceau est déjà en cours, ici ou sur une autre instance
+            return null;
+        }
+        if (chunk.getAttempts() >= maxAttempts) {
+            chunk.setStatus(IngestionChunk.Status.FAILED);
+            chunk.setLastError("Nombre maximal de tentatives atteint");
+            return ingestionChunkRepository.save(chunk);
+        }
+        chunk.setStatus(IngestionChunk.Status.RUNNING);
+        chunk.setAttempts(chunk.getAttempts() + 1);
+        chunk.setWorkerId(workerId);
+        chunk.setHeartbeatAt(LocalDateTime.now());
+        return ingestionChunkRepository.save(chunk);
+    }
+
+    private boolean isAlive(IngestionChunk chunk) {
+        return chunk.getHeartbeatAt() != null
+                && chunk.getHeartbeatAt().isAfter(LocalDateTime.now().minus(staleAfter));
+    }
+
+    /**
+     * Battement de cœur du morceau, appelé par le thread qui le traite.
+     *
+     * @return false si le morceau n'appartient plus à cette instance (repris après un silence trop long)
+     */
+    @Transactional
+    public boolean heartbeat(IngestionChunk chunk) {
+        return ingestionChunkRepository.touch(chunk.getId(), chunk.getWorkerId(),
+                IngestionChunk.Status.RUNNING, LocalDateTime.now()) > 0;
+    }
+
+    /**
+     * Enregistre les compteurs du morceau traité, s'il appartient toujours à cette instance.
+     */
+    @Transactional
+    public void complete(IngestionChunk processed) {
+        ingestionChunkRepository.lockById(processed.getId())
+                .filter(chunk -> isOwnedBy(chunk, processed.getWorkerId()))
+                .ifPresent(chunk -> {
+                    chunk.setTotalRecords(processed.getTotalRecords());
+                    chunk.setSuccessfulRecords(processed.getSuccessfulRecords());
+                    chunk.setFailedRecords(processed.getFailedRecords());
+                    chunk.setForwardedRecords(processed.getForwardedRecords());
+                    chunk.setForwardFailedRecords(processed.getForwardFailedRecords());
+                    chunk.setRejectsFilePath(processed.getRejectsFilePath());
+                    chunk.setDroppedRejects(processed.getDroppedRejects());
+                    chunk.setColumnErrors(processed.getColumnErrors());
+                    chunk.setStatus(IngestionChunk.Status.COMPLETED);
+                    chunk.setLastError(null);
+                    ingestionChunkRepository.save(chunk);
+                });
+    }
+
+    /**
+     * @return true si le morceau est définitivement en échec, false s'il doit être retenté ;
+     * sans effet (true) si le morceau n'appartient plus à cette instance
+     */
+    @Transactional
+    public boolean fail(IngestionChunk processed, String message) {
+        IngestionChunk chunk = ingestionChunkRepository.lockById(processed.getId())
+                .filter(locked -> isOwnedBy(locked, processed.getWorkerId()))
+                .orElse(null);
+        if (chunk == null) {
+            return true;
+        }
+        boolean exhausted = chunk.getAttempts() >= maxAttempts;
+        chunk.setStatus(exhausted ? IngestionChunk.Status.FAILED : IngestionChunk.Status.QUEUED);
+        chunk.setWorkerId(null);
+        chunk.setLastError(message);
+        ingestionChunkRepository.save(chunk);
+        return exhausted;
+    }
+
+    private static boolean isOwnedBy(IngestionChunk chunk, String workerId) {
+        return chunk.getStatus() == IngestionChunk.Status.RUNNING && workerId != null
+                && workerId.equals(chunk.getWorkerId());
+    }
+
+    /**
+     * Recalcule les compteurs du log à partir de ses morceaux et le termine quand tous sont
+     * terminés. Comme pour les sous-jobs, seul le passage à un état terminal notifie.
+     */
+    @Transactional
+    public void finishParentIfDone(Long logId) {
+        IngestionLog log = ingestionLogRepository.lockById(logId).orElse(null);
+        if (log == null) {
+            return;
+        }
+
+        List<IngestionChunk> chunks = ingestionChunkRepository.findByLogIdOrderByChunkIndexAsc(logId);
+        int total = 0;
+        int successful = 0;
+        int failed = 0;
+        int forwarded = 0;
+        int forwardFailed = 0;
+        int finished = 0;
+        int failedChunks = 0;
+        int droppedRejects = 0;
+        List<Path> rejects = new ArrayList<>();
+        Map<String, Long> columnErrors = new TreeMap<>();
+
+        for (IngestionChunk chunk : chunks) {
+            total += chunk.getTotalRecords() != null ? chunk.getTotalRecords() : 0;
+            successful += chunk.getSuccessfulRecords() != null ? chunk.getSuccessfulRecords() : 0;
+            failed += chunk.getFailedRecords() != null ? chunk.getFailedRecords() : 0;
+            forwarded += chunk.getForwardedRecords() != null ? chunk.getForwardedRecords() : 0;
+            forwardFailed += chunk.getForwardFailedRecords() != null ? chunk.getForwardFailedRecords() : 0;
+            if (chunk.getStatus() == IngestionChunk.Status.FAILED) {
+                failedChunks++;
+            }
+            if (chunk.getStatus() == IngestionChunk.Status.COMPLETED || chunk.getStatus() == IngestionChunk.Status.FAILED) {
+                finished++;
+            }
+            if (chunk.getRejectsFilePath() != null) {
+                rejects.add(Paths.get(chunk.getRejectsFilePath()));
+            }
+            if (chunk.getColumnErrors() != null) {
+                chunk.getColumnErrors().forEach((column, count) -> columnErrors.merge(column, count, Long::sum));
+            }
+            droppedRejects += chunk.getDroppedRejects() != null ? chunk.getDroppedRejects() : 0;
+        }
+
+        log.setTotalRecords(total);
+        log.setSuccessfulRecords(successful);
+        log.setFailedRecords(failed);
+        log.setForwardedRecords(forwarded);
+        log.setForwardFailedRecords(forwardFailed);
+        log.setColumnErrors(columnErrors);
+        log.setDroppedRejects(droppedRejects > 0 ? droppedRejects : null);
+
+        if (finished < chunks.size() || log.getStatus() != IngestionLog.Status.PROCESSING) {
+            ingestionLogRepository.save(log);
+            return;
+        }
+
+        if (failedChunks == 0 && failed == 0 && forwardFailed == 0) {
+            log.setStatus(IngestionLog.Status.COMPLETED);
+        } else if (successful > 0) {
+            log.setStatus(IngestionLog.Status.PARTIALLY_COMPLETED);
+        } else {
+            log.setStatus(IngestionLog.Status.FAILED);
+        }
+        log.setErrorMessage(failedChunks > 0
+                ? failedChunks + " morceau(x) sur " + chunks.size() + " en échec"
+                : null);
+        log.setCheckpointAt(LocalDateTime.now());
+
+        try {
+            Path merged = rejectedRowSink.merge(log, rejects);
+            if (merged != null) {
+                log.setRejectsFilePath(merged.toString());
+            }
+        } catch (IOException e) {
+            System.err.println("Impossible de réunir les rejets de l'ingestion " + logId + ": " + e.getMessage());
+        }
+
+        log = ingestionLogRepository.save(log);
+        // Les fichiers d'un sous-log sont supprimés à la fin du log parent
+        if (failedChunks == 0 && log.getParentLogId() == null) {
+            ingestionFileStore.delete(log.getStoredFilePath());
+        }
+        notificationService.sendIngestionNotification(log);
+
+        if (log.getParentLogId() != null) {
+            ingestionBundleService.childFinished(log.getParentLogId());
+        }
+    }
+
+    /**
+     * Republie les morceaux RUNNING sans battement de cœur depuis stale-after (instance arrêtée
+     * pendant le traitement) et les morceaux QUEUED dont le message semble perdu. La remise en file
+     * est une seule requête conditionnelle : seules les lignes qu'elle a modifiées sont republiées,
+     * par l'instance qui les a modifiées.
+     */
+    @Scheduled(fixedDelayString = "${processing.distributed.stale-check-interval-ms:60000}")
+    public void republishStale() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            Timestamp threshold = Timestamp.valueOf(now.minus(staleAfter));
+            List<Map<String, Object>> reset = jdbcTemplate.queryForList(RESET_STALE,
+                    Timestamp.valueOf(now), threshold, threshold);
+            for (Map<String, Object> chunk : reset) {
+                System.out.println("Morceau " + chunk.get("chunk_index") + " de l'ingestion " + chunk.get("log_id")
+                        + " sans activité depuis " + staleAfter + ", nouvelle publication");
+                publish(((Number) chunk.get("id")).longValue());
+            }
+        } catch (Exception e) {
+            System.err.println("Erreur lors de la vérification des morceaux d'ingestion: " + e.getMessage());
+        }
+    }
+
+    private void publish(Long chunkId) {
+        try {
+            rabbitTemplate.convertAndSend(exchange, routingKey, Map.of("chunkId", chunkId));
+        } catch (Exception e) {
+            // Le morceau reste QUEUED et sera republié par republishStale
+            System.err.println("Erreur lors de la publication du morceau " + chunkId + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package ens.edupath.ingestion.service;
+
+import com.opencsv.exceptions.CsvException;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Lit un fichier d'ingestion stocké sur disque avec le parseur correspondant à son extension.
+ * Les CSV compressés (.csv.gz, .csv.zst) sont décompressés à la volée entre le fichier et le
+ * parseur : la version décompressée n'est jamais écrite sur disque.
+ */
+@Service
+public class IngestionFileReader {
+
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final String ZSTD_SUFFIX = ".zst";
+
+    private final CSVParserService csvParserService;
+    private final ExcelParserService excelParserService;
+    private final long maxDecompressedSize;
+    private final int maxCompressionRatio;
+
+    public IngestionFileReader(CSVParserService csvParserService, ExcelParserService excelParserService,
+                               @Value("${file.upload.max-decompressed-size:2GB}") DataSize maxDecompressedSize,
+                               @Value("${file.upload.max-compression-ratio:100}") int maxCompressionRatio) {
+        this.csvParserService = csvParserService;
+        this.excelParserService = excelParserService;
+        this.maxDecompressedSize = maxDecompressedSize.toBytes();
+        this.maxCompressionRatio = Math.max(1, maxCompressionRatio);
+    }
+
+    public long read(Path path, String filename, String entityType, IngestionProgressRegistry.Progress progress,
+                     Consumer<IngestionRecord> handler) throws IOException, CsvException {
+        return read(path, filename, null, entityType, progress, handler);
+    }
+
+    /**
+     * @param sheetName feuille à lire pour un classeur Excel, ou null pour la première
+     * @param progress compteurs à alimenter avec les octets lus, ou null
+     * @return le nombre d'enregistrements transmis au handler
+     */
+    public long read(Path path, String filename, String sheetName, String entityType,
+                     IngestionProgressRegistry.Progress progress,
+                     Consumer<IngestionRecord> handler) throws IOException, CsvException {
+        if (filename == null) {
+            throw new IOException("Nom de fichier invalide");
+        }
+
+        String name = filename.toLowerCase(Locale.ROOT);
+        String compression = name.endsWith(GZIP_SUFFIX) ? GZIP_SUFFIX : name.endsWith(ZSTD_SUFFIX) ? ZSTD_SUFFIX : null;
+        if (compression != null) {
+            name = name.substring(0, name.length() - compression.length());
+        }
+
+        if (name.endsWith(".csv")) {
+            InputStream in = Files.newInputStream(path);
+            if (progress != null) {
+                in = new FilterInputStream(in) {
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if (b >= 0) {
+                            progress.addBytesRead(1);
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        int n = super.read(buffer, offset, length);
+                        if (n > 0) {
+                            progress.addBytesRead(n);
+                        }
+                        return n;
+                    }
+                };
+            }
+            if (compression != null) {
+                // Progression comptée sur les octets compressés : elle reste rapportée à la taille du fichier
+                in = decompress(in, compression, Files.size(path));
+            }
+            return csvParserService.streamCSV(in, entityType, handler);
+        } else if (compression == null && (name.endsWith(".xlsx") || name.endsWith(".xls"))) {
+            return excelParserService.streamExcel(path, name, sheetName, entityType, handler);
+        } else {
+            throw new IOException("Format de fichier non supporté");
+        }
+    }
+
+    /**
+     * Repère les limites d'enregistrements d'un CSV pour le découper en morceaux de rowsPerChunk
+     * lignes. Les retours à la ligne entre guillemets font partie de la valeur, pas une fin de ligne.
+     */
+    public CsvLayout scanCsv(Path path, int rowsPerChunk) throws IOException {
+        List<Long> boundaries = new ArrayList<>();
+        long headerLength = -1;
+        long position = 0;
+        long rows = 0;
+        boolean inQuotes = false;
+        boolean escaped = false;
+
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    position++;
+                    if (escaped) {
+                        escaped = false;
+                    } else if (inQuotes && b == '\\') {
+                        escaped = true; // Échappement par défaut d'opencsv
+                    } else if (b == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (b == '\n' && !inQuotes) {
+                        if (headerLength < 0) {
+                            headerLength = position;
+                            boundaries.add(position);
+                        } else if (++rows % rowsPerChunk == 0) {
+                            boundaries.add(position);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (headerLength < 0) {
+            return new CsvLayout(position, List.of());
+        }
+        if (boundaries.get(boundaries.size() - 1) != position) {
+            boundaries.add(position);
+        }
+        return new CsvLayout(headerLength, boundaries);
+    }
+
+    /**
+     * Lit les enregistrements d'une plage d'octets d'un CSV, précédée de sa ligne de headers.
+     * Les numéros de ligne des enregistrements sont relatifs au morceau.
+     */
+    public long readCsvRange(Path path, long headerLength, long start, long end, String entityType,
+                             Consumer<IngestionRecord> handler) throws IOException, CsvException {
+        InputStream in = new SequenceInputStream(range(path, 0, headerLength), range(path, start, end));
+        return csvParserService.streamCSV(in, entityType, handler);
+    }
+
+    private static InputStream range(Path path, long start, long end) throws IOException {
+        SeekableByteChannel channel = Files.newByteChannel(path);
+        channel.position(start);
+        return new FilterInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024)) {
+            private long remaining = end - start;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int n = super.read(buffer, offset, (int) Math.min(length, remaining));
+                if (n > 0) {
+                    remaining -= n;
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * @param boundaries débuts des morceaux suivis de la taille du fichier : le morceau i couvre
+     *                   [boundaries[i], boundaries[i + 1])
+     */
+    public record CsvLayout(long headerLength, List<Long> boundaries) {
+        public int chunkCount() {
+            return Math.max(0, boundaries.size() - 1);
+        }
+    }
+
+    private InputStream decompress(InputStream in, String compression, long compressedSize) throws IOException {
+        InputStream inflated;
+        try {
+            if (GZIP_SUFFIX.equals(compression)) {
+                inflated = new GZIPInputStream(in, 64 * 1024);
+            } else if (ZstdUtils.isZstdCompressionAvailable()) {
+                inflated = new ZstdCompressorInputStream(in);
+            } else {
+                throw new IOException("Décompression zstd indisponible sur ce serveur (bibliothèque zstd-jni absente)");
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+
+        // Protection contre les bombes de décompression : taille absolue et taux de compression
+        return new DecompressionLimitInputStream(inflated,
+                DecompressionLimitInputStream.limit(compressedSize, maxDecompressedSize, maxCompressionRatio),
+                compressedSize);
+    }
+}
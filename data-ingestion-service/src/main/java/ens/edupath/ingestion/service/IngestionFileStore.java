@@ -0,0 +1,101 @@
+package ens.edupath.ingestion.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Copie les fichiers reçus dans file.upload.temp-dir et calcule leur empreinte SHA-256.
+ * Le fichier conservé permet de reprendre une ingestion interrompue depuis son dernier point de contrôle.
+ */
+@Service
+public class IngestionFileStore {
+
+    @Value("${file.upload.temp-dir:./temp/uploads}")
+    private String tempDir;
+
+    public StoredFile store(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return store(in, file.getOriginalFilename());
+        }
+    }
+
+    public StoredFile store(InputStream in, String originalFilename) throws IOException {
+        Path directory = Paths.get(tempDir);
+        Files.createDirectories(directory);
+        Path target = directory.resolve(UUID.randomUUID() + "-" + sanitize(originalFilename));
+
+        MessageDigest digest = newDigest();
+        try (DigestInputStream digestIn = new DigestInputStream(in, digest)) {
+            Files.copy(digestIn, target);
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        return new StoredFile(target, HexFormat.of().formatHex(digest.digest()), Files.size(target));
+    }
+
+    /**
+     * Prend en charge un fichier déjà écrit sur disque (envoi par morceaux) : seule l'empreinte est calculée.
+     */
+    public StoredFile adopt(Path path) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return new StoredFile(path, HexFormat.of().formatHex(digest.digest()), Files.size(path));
+    }
+
+    public String sha256(MultipartFile file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public boolean exists(String storedPath) {
+        return storedPath != null && Files.exists(Paths.get(storedPath));
+    }
+
+    public void delete(String storedPath) {
+        if (storedPath == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(Paths.get(storedPath));
+        } catch (IOException e) {
+            System.err.println("Impossible de supprimer le fichier temporaire " + storedPath + ": " + e.getMessage());
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponible", e);
+        }
+    }
+
+    private String sanitize(String filename) {
+        if (filename == null) {
+            return "upload";
+        }
+        return Paths.get(filename).getFileName().toString().replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    public record StoredFile(Path path, String sha256, long size) {
+    }
+}
@@ -0,0 +1,53 @@
+package ens.edupath.ingestion.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Nœuds déjà écrits pendant une ingestion, indexés par label et identifiant métier.
+ * Une ligne qui référence un étudiant ou un module déjà écrit avec les mêmes propriétés
+ * n'a plus besoin de le relire ni de le réécrire. Le cache est borné (LRU) et vit le temps
+ * d'un seul traitement de fichier ; il peut être partagé entre les voies d'un traitement parallèle.
+ */
+public class IngestionIdentityCache {
+
+    private final Map<String, Map<String, Object>> nodes;
+
+    public IngestionIdentityCache(int maxEntries) {
+        int capacity = Math.max(1, maxEntries);
+        this.nodes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Indique si le nœud a déjà été écrit avec toutes les propriétés données.
+     */
+    public synchronized boolean isUpToDate(String label, String id, Map<String, Object> properties) {
+        Map<String, Object> known = nodes.get(key(label, id));
+        return known != null && known.entrySet().containsAll(properties.entrySet());
+    }
+
+    /**
+     * Enregistre les propriétés qui viennent d'être écrites pour ce nœud.
+     */
+    public synchronized void remember(String label, String id, Map<String, Object> properties) {
+        nodes.computeIfAbsent(key(label, id), k -> new HashMap<>()).putAll(properties);
+    }
+
+    public synchronized void clear() {
+        nodes.clear();
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    private String key(String label, String id) {
+        return label + ":" + id;
+    }
+}
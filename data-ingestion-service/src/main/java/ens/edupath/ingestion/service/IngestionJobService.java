@@ -0,0 +1,131 @@
+package ens.edupath.ingestion.service;
+
+import ens.edupath.ingestion.model.jpa.IngestionJob;
+import ens.edupath.ingestion.model.jpa.IngestionLog;
+import ens.edupath.ingestion.repository.jpa.IngestionJobRepository;
+import ens.edupath.ingestion.repository.jpa.IngestionLogRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * File d'attente persistante des ingestions en arrière-plan, stockée dans la table ingestion_jobs.
+ * Les jobs survivent aux redémarrages : un job resté RUNNING sans battement de cœur est remis en file
+ * et reprend depuis le point de contrôle de son IngestionLog.
+ */
+@Service
+public class IngestionJobService {
+
+    private final IngestionJobRepository ingestionJobRepository;
+    private final IngestionLogRepository ingestionLogRepository;
+
+    public IngestionJobService(IngestionJobRepository ingestionJobRepository,
+                               IngestionLogRepository ingestionLogRepository) {
+        this.ingestionJobRepository = ingestionJobRepository;
+        this.ingestionLogRepository = ingestionLogRepository;
+    }
+
+    @Transactional
+    public IngestionJob enqueue(Long logId) {
+        IngestionJob job = new IngestionJob();
+        job.setLogId(logId);
+        job.setStatus(IngestionJob.Status.QUEUED);
+        job.setAttempts(0);
+        return ingestionJobRepository.save(job);
+    }
+
+    /**
+     * Indique si un job en attente ou en cours porte déjà sur ce log.
+     */
+    @Transactional(readOnly = true)
+    public boolean hasActiveJob(Long logId) {
+        return ingestionJobRepository.findByLogId(logId).stream()
+                .anyMatch(job -> job.getStatus() == IngestionJob.Status.QUEUED
+                        || job.getStatus() == IngestionJob.Status.RUNNING);
+    }
+
+    /**
+     * Réclame le plus ancien job en attente qui n'est pas verrouillé par une autre instance.
+     */
+    @Transactional
+    public Optional<IngestionJob> claimNext(String workerId) {
+        return ingestionJobRepository.lockNextQueued().map(job -> {
+            LocalDateTime now = LocalDateTime.now();
+            job.setStatus(IngestionJob.Status.RUNNING);
+            job.setWorkerId(workerId);
+            job.setClaimedAt(now);
+            job.setHeartbeatAt(now);
+            job.setAttempts((job.getAttempts() != null ? job.getAttempts() : 0) + 1);
+            return ingestionJobRepository.save(job);
+        });
+    }
+
+    /**
+     * Battement de cœur des seuls jobs que ce worker exécute réellement : un job réclamé mais jamais
+     * lancé vieillit et finit remis en file par requeueStale.
+     */
+    @Transactional
+    public void heartbeat(String workerId, Collection<Long> jobIds) {
+        if (!jobIds.isEmpty()) {
+            ingestionJobRepository.touch(jobIds, workerId, IngestionJob.Status.RUNNING, LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Rend un job réclamé qui n'a pas pu être lancé, sans compter de tentative.
+     */
+    @Transactional
+    public void release(Long jobId) {
+        ingestionJobRepository.findById(jobId).ifPresent(job -> {
+            job.setStatus(IngestionJob.Status.QUEUED);
+            job.setWorkerId(null);
+            job.setAttempts(Math.max(0, (job.getAttempts() != null ? job.getAttempts() : 1) - 1));
+            ingestionJobRepository.save(job);
+        });
+    }
+
+    @Transactional
+    public void markFinished(Long jobId, boolean success, String message) {
+        ingestionJobRepository.findById(jobId).ifPresent(job -> {
+            job.setStatus(success ? IngestionJob.Status.COMPLETED : IngestionJob.Status.FAILED);
+            job.setLastError(success ? null : message);
+            ingestionJobRepository.save(job);
+        });
+    }
+
+    /**
+     * Remet en file les jobs dont l'instance ne donne plus signe de vie.
+     * Au-delà de maxAttempts, le job et son log passent en FAILED.
+     *
+     * @param abandonedLogs reçoit les logs passés en FAILED
+     * @return le nombre de jobs remis en file
+     */
+    @Transactional
+    public int requeueStale(Duration staleAfter, int maxAttempts, Consumer<IngestionLog> abandonedLogs) {
+        int requeued = 0;
+        LocalDateTime threshold = LocalDateTime.now().minus(staleAfter);
+
+        for (IngestionJob job : ingestionJobRepository.findByStatusAndHeartbeatAtBefore(IngestionJob.Status.RUNNING, threshold)) {
+            if (job.getAttempts() != null && job.getAttempts() >= maxAttempts) {
+                job.setStatus(IngestionJob.Status.FAILED);
+                job.setLastError("Abandonné après " + job.getAttempts() + " tentatives interrompues");
+                ingestionLogRepository.findById(job.getLogId()).ifPresent(log -> {
+                    log.setStatus(IngestionLog.Status.FAILED);
+                    log.setErrorMessage(job.getLastError());
+                    abandonedLogs.accept(ingestionLogRepository.save(log));
+                });
+            } else {
+                job.setStatus(IngestionJob.Status.QUEUED);
+                job.setWorkerId(null);
+                requeued++;
+            }
+            ingestionJobRepository.save(job);
+        }
+        return requeued;
+    }
+}
@@ -0,0 +1,132 @@
+package ens.edupath.ingestion.service;
+
+import ens.edupath.ingestion.dto.IngestionResponse;
+import ens.edupath.ingestion.model.jpa.IngestionJob;
+import ens.edupath.ingestion.model.jpa.IngestionLog;
+import ens.edupath.ingestion.repository.jpa.IngestionLogRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Réclame les jobs d'ingestion en attente et les exécute sur un pool borné.
+ * Un job n'est réclamé que lorsqu'un thread du pool est libre.
+ */
+@Component
+public class IngestionJobWorker {
+
+    private final IngestionJobService ingestionJobService;
+    private final IngestionLogRepository ingestionLogRepository;
+    private final DataIngestionService dataIngestionService;
+    private final IngestionBundleService ingestionBundleService;
+    private final TaskExecutor executor;
+    private final Semaphore freeWorkers;
+    private final String workerId;
+
+    // Jobs en cours d'exécution dans le pool de cette instance
+    private final Set<Long> runningJobs = ConcurrentHashMap.newKeySet();
+
+    @Value("${processing.jobs.stale-after:PT2M}")
+    private Duration staleAfter;
+
+    @Value("${processing.jobs.max-attempts:3}")
+    private int maxAttempts;
+
+    public IngestionJobWorker(IngestionJobService ingestionJobService,
+                              IngestionLogRepository ingestionLogRepository,
+                              DataIngestionService dataIngestionService,
+                              IngestionBundleService ingestionBundleService,
+                              @Qualifier("ingestionJobExecutor") TaskExecutor executor,
+                              @Value("${processing.jobs.workers:2}") int workers) {
+        this.ingestionJobService = ingestionJobService;
+        this.ingestionLogRepository = ingestionLogRepository;
+        this.dataIngestionService = dataIngestionService;
+        this.ingestionBundleService = ingestionBundleService;
+        this.executor = executor;
+        this.freeWorkers = new Semaphore(Math.max(1, workers));
+        this.workerId = hostname() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @Scheduled(fixedDelayString = "${processing.jobs.poll-interval-ms:2000}")
+    public void poll() {
+        try {
+            ingestionJobService.heartbeat(workerId, List.copyOf(runningJobs));
+            List<IngestionLog> abandoned = new ArrayList<>();
+            ingestionJobService.requeueStale(staleAfter, maxAttempts, abandoned::add);
+            for (IngestionLog log : abandoned) {
+                if (log.getParentLogId() != null) {
+                    ingestionBundleService.childFinished(log.getParentLogId());
+                }
+            }
+
+            while (freeWorkers.tryAcquire()) {
+                Optional<IngestionJob> job = ingestionJobService.claimNext(workerId);
+                if (job.isEmpty()) {
+                    freeWorkers.release();
+                    break;
+                }
+                Long jobId = job.get().getId();
+                runningJobs.add(jobId);
+                try {
+                    executor.execute(() -> {
+                        try {
+                            run(job.get());
+                        } finally {
+                            runningJobs.remove(jobId);
+                            freeWorkers.release();
+                        }
+                    });
+                } catch (TaskRejectedException e) {
+                    // Le thread libéré n'attend pas encore de tâche : rendre le job, réessayer au prochain cycle
+                    runningJobs.remove(jobId);
+                    freeWorkers.release();
+                    ingestionJobService.release(jobId);
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            // Base indisponible, etc. : réessayer au prochain cycle
+            System.err.println("Erreur lors de la récupération des jobs d'ingestion: " + e.getMessage());
+        }
+    }
+
+    private void run(IngestionJob job) {
+        try {
+            Optional<IngestionLog> log = ingestionLogRepository.findById(job.getLogId());
+            if (log.isEmpty()) {
+                ingestionJobService.markFinished(job.getId(), false, "Log d'ingestion introuvable: " + job.getLogId());
+                return;
+            }
+
+            IngestionLog ingestionLog = log.get();
+            ingestionLog.setStatus(IngestionLog.Status.PROCESSING);
+            ingestionLog = ingestionLogRepository.save(ingestionLog);
+
+            IngestionResponse response = dataIngestionService.processStoredFile(ingestionLog);
+            ingestionJobService.markFinished(job.getId(), !"FAILED".equals(response.getStatus()), response.getMessage());
+        } catch (Exception e) {
+            ingestionJobService.markFinished(job.getId(), false, e.getMessage());
+        }
+    }
+
+    private static String hostname() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "ingestion";
+        }
+    }
+}
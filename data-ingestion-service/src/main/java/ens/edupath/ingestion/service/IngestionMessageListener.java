@@ -0,0 +1,200 @@
+package ens.edupath.ingestion.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ens.edupath.ingestion.config.RabbitMQConfig;
+import ens.edupath.ingestion.dto.IngestionMessage;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.retry.RepublishMessageRecoverer;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ingestion continue : consomme ingestion.queue par lots de messages et écrit leurs
+ * enregistrements dans le graphe avec le même chemin que les fichiers (lots UNWIND, rejeu ligne
+ * par ligne). Les notifications de fin d'ingestion publiées sur la même file ne contiennent pas
+ * d'enregistrements et sont ignorées.
+ *
+ * Les messages illisibles ou d'un type d'entité inconnu, et les enregistrements rejetés, sont
+ * republiés dans ingestion.queue.dlq avec le motif de l'échec : un message partiellement en
+ * échec n'y est republié qu'avec ses enregistrements rejetés.
+ */
+@Component
+public class IngestionMessageListener {
+
+    private static final Set<String> ENTITY_TYPES = Set.of("User", "Module", "Note", "Evaluation", "Presence", "Activity");
+
+    private final DataIngestionService dataIngestionService;
+    private final GraphBatchWriter graphBatchWriter;
+    private final ObjectMapper objectMapper;
+    private final RepublishMessageRecoverer deadLetters;
+
+    public IngestionMessageListener(DataIngestionService dataIngestionService,
+                                    GraphBatchWriter graphBatchWriter,
+                                    ObjectMapper objectMapper,
+                                    RepublishMessageRecoverer deadLetters) {
+        this.dataIngestionService = dataIngestionService;
+        this.graphBatchWriter = graphBatchWriter;
+        this.objectMapper = objectMapper;
+        this.deadLetters = deadLetters;
+    }
+
+    /**
+     * Une exception fait réessayer le lot avec un délai croissant, puis l'envoie dans la file
+     * des messages en échec (voir RabbitMQConfig) : elle n'est levée que si le graphe est
+     * indisponible, pas pour des données invalides ou des violations de contrainte. Les messages
+     * en échec ne sont republiés qu'une fois le lot traité, pour ne pas l'être à chaque tentative.
+     */
+    @RabbitListener(queues = RabbitMQConfig.INGESTION_QUEUE, containerFactory = "ingestionBatchListenerFactory")
+    public void onMessages(List<Message> messages) {
+        List<Message> invalid = new ArrayList<>();
+        List<String> invalidReasons = new ArrayList<>();
+        Map<IngestionRecord, Origin> origins = new IdentityHashMap<>();
+        Map<String, List<IngestionRecord>> recordsByType = new LinkedHashMap<>();
+        for (Message message : messages) {
+            IngestionMessage payload;
+            try {
+                payload = parse(message);
+            } catch (IllegalArgumentException e) {
+                invalid.add(message);
+                invalidReasons.add(e.getMessage());
+                continue;
+            }
+            if (payload != null) {
+                recordsByType.computeIfAbsent(payload.getEntityType(), type -> new ArrayList<>())
+                        .addAll(toRecords(message, payload, origins));
+            }
+        }
+
+        // Enregistrements rejetés regroupés par message d'origine
+        Map<Message, FailedRecords> failures = new IdentityHashMap<>();
+        int batchSize = graphBatchWriter.getBatchSize();
+        recordsByType.forEach((entityType, records) -> {
+            int failed = 0;
+            for (int from = 0; from < records.size(); from += batchSize) {
+                failed += dataIngestionService.writeRecords(entityType,
+                        new ArrayList<>(records.subList(from, Math.min(records.size(), from + batchSize))),
+                        (record, error) -> {
+                            Origin origin = origins.get(record);
+                            failures.computeIfAbsent(origin.message(), message -> new FailedRecords(origin.payload()))
+                                    .add(origin.values(), error);
+                        });
+            }
+            if (failed > 0) {
+                System.err.println("Ingestion par messages (" + entityType + "): " + failed + " enregistrement(s) sur "
+                        + records.size() + " en échec, envoyé(s) dans " + RabbitMQConfig.INGESTION_DEAD_LETTER_QUEUE);
+            }
+        });
+
+        for (int i = 0; i < invalid.size(); i++) {
+            System.err.println("Message d'ingestion envoyé dans " + RabbitMQConfig.INGESTION_DEAD_LETTER_QUEUE
+                    + ": " + invalidReasons.get(i));
+            deadLetters.recover(invalid.get(i), new IllegalArgumentException(invalidReasons.get(i)));
+        }
+        failures.forEach((message, failed) -> deadLetters.recover(failed.toMessage(message),
+                new IllegalArgumentException(failed.reason())));
+    }
+
+    /**
+     * @return le contenu du message, null pour une notification ou un lot vide
+     * @throws IllegalArgumentException si le message est illisible ou d'un type d'entité inconnu
+     */
+    private IngestionMessage parse(Message message) {
+        IngestionMessage payload;
+        try {
+            payload = objectMapper.readValue(message.getBody(), IngestionMessage.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Message d'ingestion illisible: " + e.getMessage());
+        }
+        if (payload.getRecords() == null || payload.getRecords().isEmpty()) {
+            return null; // Notification ou lot vide
+        }
+        if (!ENTITY_TYPES.contains(payload.getEntityType())) {
+            throw new IllegalArgumentException("Type d'entité invalide: " + payload.getEntityType()
+                    + " (source " + payload.getSource() + ")");
+        }
+        return payload;
+    }
+
+    /**
+     * Les clés des enregistrements du message jouent le rôle de la ligne de headers d'un fichier.
+     */
+    private List<IngestionRecord> toRecords(Message message, IngestionMessage payload,
+                                            Map<IngestionRecord, Origin> origins) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (Map<String, Object> record : payload.getRecords()) {
+            if (record != null) {
+                keys.addAll(record.keySet());
+            }
+        }
+        List<String> columns = new ArrayList<>(keys);
+        RecordSchema schema = RecordSchema.compile(payload.getEntityType(),
+                columns.stream().map(RecordSchema::normalizeHeader).toArray(String[]::new));
+
+        List<IngestionRecord> records = new ArrayList<>(payload.getRecords().size());
+        for (int i = 0; i < payload.getRecords().size(); i++) {
+            Map<String, Object> values = payload.getRecords().get(i);
+            if (values == null) {
+                continue;
+            }
+            String[] cells = new String[columns.size()];
+            for (int c = 0; c < cells.length; c++) {
+                Object value = values.get(columns.get(c));
+                cells[c] = value != null ? value.toString() : null;
+            }
+            IngestionRecord record = IngestionRecord.of(schema, i + 1, cells);
+            if (record != null) {
+                records.add(record);
+                origins.put(record, new Origin(message, payload, values));
+            }
+        }
+        return records;
+    }
+
+    private record Origin(Message message, IngestionMessage payload, Map<String, Object> values) {
+    }
+
+    /**
+     * Enregistrements rejetés d'un même message, republiés ensemble dans un message de même type et source.
+     */
+    private class FailedRecords {
+
+        private final IngestionMessage payload;
+        private final List<Map<String, Object>> records = new ArrayList<>();
+        private Exception lastError;
+
+        FailedRecords(IngestionMessage payload) {
+            this.payload = payload;
+        }
+
+        void add(Map<String, Object> values, Exception error) {
+            records.add(values);
+            lastError = error;
+        }
+
+        String reason() {
+            return records.size() + " enregistrement(s) sur " + payload.getRecords().size()
+                    + " rejeté(s), dernière erreur: " + lastError.getMessage();
+        }
+
+        Message toMessage(Message original) {
+            try {
+                byte[] body = objectMapper.writeValueAsBytes(
+                        new IngestionMessage(payload.getEntityType(), payload.getSource(), records));
+                return MessageBuilder.withBody(body).copyProperties(original.getMessageProperties()).build();
+            } catch (JsonProcessingException e) {
+                return original; // Republier le message entier plutôt que perdre ses rejets
+            }
+        }
+    }
+}
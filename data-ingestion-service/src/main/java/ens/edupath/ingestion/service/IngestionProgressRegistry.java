@@ -0,0 +1,225 @@
+package ens.edupath.ingestion.service;
+
+import ens.edupath.ingestion.dto.IngestionProgressEvent;
+import ens.edupath.ingestion.model.jpa.IngestionLog;
+import ens.edupath.ingestion.repository.jpa.IngestionLogRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compteurs en mémoire des ingestions en cours et abonnés SSE qui les suivent.
+ * Les abonnés reçoivent un instantané à intervalle fixe : les compteurs en mémoire pour les
+ * traitements de cette instance, sinon le log enregistré, relu en une seule requête pour tous les
+ * logs suivis. Le nombre d'abonnés ne change rien à la charge sur la base.
+ */
+@Component
+public class IngestionProgressRegistry {
+
+    private final IngestionLogRepository ingestionLogRepository;
+    private final Map<Long, Progress> runs = new ConcurrentHashMap<>();
+    private final Map<Long, List<SseEmitter>> watchers = new ConcurrentHashMap<>();
+
+    @Value("${processing.progress.emitter-timeout:PT30M}")
+    private Duration emitterTimeout;
+
+    public IngestionProgressRegistry(IngestionLogRepository ingestionLogRepository) {
+        this.ingestionLogRepository = ingestionLogRepository;
+    }
+
+    public Progress start(IngestionLog log, long fileSize) {
+        Progress progress = new Progress(log.getId(), fileSize);
+        runs.put(log.getId(), progress);
+        return progress;
+    }
+
+    public void finish(IngestionLog log) {
+        Progress progress = runs.get(log.getId());
+        if (progress != null) {
+            progress.status = log.getStatus().name();
+            progress.finished = true;
+        }
+    }
+
+    /**
+     * Abonne un client à la progression d'un log. Si le traitement n'est pas en cours dans
+     * cette instance, l'état enregistré dans le log est envoyé tout de suite, puis relu à
+     * chaque diffusion jusqu'à un état terminal.
+     */
+    public SseEmitter subscribe(IngestionLog log) {
+        SseEmitter emitter = new SseEmitter(emitterTimeout.toMillis());
+        Long logId = log.getId();
+
+        if (!runs.containsKey(logId)) {
+            try {
+                if (send(emitter, isTerminal(log.getStatus()), fromLog(log))) {
+                    return emitter;
+                }
+            } catch (IOException e) {
+                emitter.completeWithError(e);
+                return emitter;
+            }
+        }
+
+        // Ajout atomique : une liste retirée par broadcast() n'est jamais complétée après coup
+        watchers.compute(logId, (id, emitters) -> {
+            List<SseEmitter> list = emitters != null ? emitters : new CopyOnWriteArrayList<>();
+            list.add(emitter);
+            return list;
+        });
+        emitter.onCompletion(() -> unsubscribe(logId, emitter));
+        emitter.onTimeout(() -> unsubscribe(logId, emitter));
+        emitter.onError(e -> unsubscribe(logId, emitter));
+        return emitter;
+    }
+
+    private void unsubscribe(Long logId, SseEmitter emitter) {
+        watchers.computeIfPresent(logId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${processing.progress.interval-ms:1000}")
+    public void broadcast() {
+        List<Long> persisted = new ArrayList<>();
+        for (Long logId : watchers.keySet()) {
+            Progress progress = runs.get(logId);
+            if (progress == null) {
+                persisted.add(logId); // Traité par une autre instance, ou terminé avant l'abonnement
+            } else {
+                broadcast(logId, progress.finished, progress.snapshot());
+            }
+        }
+
+        if (!persisted.isEmpty()) {
+            for (IngestionLog log : ingestionLogRepository.findAllById(persisted)) {
+                broadcast(log.getId(), isTerminal(log.getStatus()), fromLog(log));
+            }
+        }
+
+        runs.values().removeIf(progress -> progress.finished);
+    }
+
+    /**
+     * Envoie l'événement aux abonnés du log ; sur un état terminal, la liste est retirée d'abord :
+     * un abonné arrivé ensuite rejoint une nouvelle liste, servie depuis le log enregistré.
+     */
+    private void broadcast(Long logId, boolean terminal, IngestionProgressEvent event) {
+        List<SseEmitter> emitters = terminal ? watchers.remove(logId) : watchers.get(logId);
+        if (emitters == null) {
+            return;
+        }
+        for (SseEmitter emitter : emitters) {
+            try {
+                send(emitter, terminal, event);
+            } catch (Exception e) {
+                emitters.remove(emitter); // Client déconnecté
+            }
+        }
+    }
+
+    /**
+     * @return true si l'état est terminal : l'émetteur est alors complété
+     */
+    private static boolean send(SseEmitter emitter, boolean terminal, IngestionProgressEvent event) throws IOException {
+        emitter.send(SseEmitter.event().name(terminal ? "complete" : "progress").data(event));
+        if (terminal) {
+            emitter.complete();
+        }
+        return terminal;
+    }
+
+    private static boolean isTerminal(IngestionLog.Status status) {
+        return status != IngestionLog.Status.PENDING && status != IngestionLog.Status.PROCESSING;
+    }
+
+    private IngestionProgressEvent fromLog(IngestionLog log) {
+        IngestionProgressEvent event = new IngestionProgressEvent();
+        event.setLogId(log.getId());
+        event.setStatus(log.getStatus().name());
+        event.setParsedRecords(log.getTotalRecords() != null ? log.getTotalRecords().longValue() : 0L);
+        event.setSuccessfulRecords(log.getSuccessfulRecords() != null ? log.getSuccessfulRecords().longValue() : 0L);
+        event.setFailedRecords(log.getFailedRecords() != null ? log.getFailedRecords().longValue() : 0L);
+        event.setRecordsPerSecond(0.0);
+        return event;
+    }
+
+    /**
+     * Compteurs d'un traitement : parsed et bytesRead sont mis à jour par le thread de lecture,
+     * successful et failed par les threads d'écriture.
+     */
+    public static class Progress {
+        private final Long logId;
+        private final long fileSize;
+        private final long startedAt = System.nanoTime();
+        private final AtomicLong parsed = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final LongAdder successful = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private long resumedFrom;
+        private volatile String status = IngestionLog.Status.PROCESSING.name();
+        private volatile boolean finished;
+
+        private Progress(Long logId, long fileSize) {
+            this.logId = logId;
+            this.fileSize = fileSize;
+        }
+
+        public LongAdder successful() {
+            return successful;
+        }
+
+        public LongAdder failed() {
+            return failed;
+        }
+
+        public void resumedFrom(long offset) {
+            this.resumedFrom = offset;
+        }
+
+        public void recordParsed(long total) {
+            parsed.lazySet(total);
+        }
+
+        public void addBytesRead(long bytes) {
+            bytesRead.addAndGet(bytes);
+        }
+
+        private IngestionProgressEvent snapshot() {
+            double elapsedSeconds = Math.max((System.nanoTime() - startedAt) / 1e9, 0.001);
+            long parsedNow = parsed.get();
+            long read = bytesRead.get();
+
+            IngestionProgressEvent event = new IngestionProgressEvent();
+            event.setLogId(logId);
+            event.setStatus(status);
+            event.setParsedRecords(parsedNow);
+            event.setSuccessfulRecords(successful.sum());
+            event.setFailedRecords(failed.sum());
+            event.setRecordsPerSecond(Math.max(0, parsedNow - resumedFrom) / elapsedSeconds);
+
+            // La position dans le fichier n'est connue que pour les formats lus en flux d'octets (CSV)
+            if (finished) {
+                event.setPercent(100.0);
+                event.setEtaSeconds(0L);
+            } else if (fileSize > 0 && read > 0) {
+                double fraction = Math.min(1.0, (double) read / fileSize);
+                event.setPercent(fraction * 100);
+                event.setEtaSeconds((long) (elapsedSeconds * (1 - fraction) / fraction));
+            }
+            return event;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package ens.edupath.ingestion.service;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ligne d'un fichier lue par position selon un {@link RecordSchema}.
+ * Les valeurs vides sont stockées à null.
+ */
+public final class IngestionRecord {
+
+    private final RecordSchema schema;
+    private final long rowNumber;
+    private final String[] values;
+    private long conversionErrors; // Champs déjà comptés en erreur pour cette ligne, un bit par Column
+
+    IngestionRecord(RecordSchema schema, long rowNumber, String[] values) {
+        this.schema = schema;
+        this.rowNumber = rowNumber;
+        this.values = values;
+    }
+
+    /**
+     * Construit un enregistrement à partir des cellules brutes : trim, vides à null.
+     *
+     * @param rowNumber numéro de la ligne dans le fichier (1 = ligne des headers)
+     * @return null si la ligne ne contient aucune valeur
+     */
+    static IngestionRecord of(RecordSchema schema, long rowNumber, String[] cells) {
+        boolean empty = true;
+        for (int i = 0; i < cells.length; i++) {
+            String value = cells[i] != null ? cells[i].trim() : null;
+            cells[i] = value != null && !value.isEmpty() ? value : null;
+            empty &= cells[i] == null || i >= schema.width() || schema.getHeaders()[i].isEmpty();
+        }
+        return empty ? null : new IngestionRecord(schema, rowNumber, cells);
+    }
+
+    /**
+     * @return la première valeur non vide parmi les colonnes du champ, ou null
+     */
+    public String get(RecordSchema.Column column) {
+        for (int position : schema.positions(column)) {
+            if (position < values.length && values[position] != null) {
+                return values[position];
+            }
+        }
+        return null;
+    }
+
+    public String get(RecordSchema.Column column, String defaultValue) {
+        String value = get(column);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Entier du champ ; une valeur non convertible est comptée dans le schéma, une fois par ligne.
+     *
+     * @return la valeur, ou defaultValue si le champ est vide ou invalide
+     */
+    public int getInt(RecordSchema.Column column, int defaultValue) {
+        String value = get(column);
+        if (value == null) {
+            return defaultValue;
+        }
+        long parsed = LenientParser.parseLong(value);
+        if (parsed == LenientParser.INVALID || parsed < Integer.MIN_VALUE || parsed > Integer.MAX_VALUE) {
+            recordConversionError(column);
+            return defaultValue;
+        }
+        return (int) parsed;
+    }
+
+    public double getDouble(RecordSchema.Column column, double defaultValue) {
+        String value = get(column);
+        if (value == null) {
+            return defaultValue;
+        }
+        double parsed = LenientParser.parseDouble(value);
+        if (Double.isNaN(parsed)) {
+            recordConversionError(column);
+            return defaultValue;
+        }
+        return parsed;
+    }
+
+    public boolean getBoolean(RecordSchema.Column column, boolean defaultValue) {
+        String value = get(column);
+        if (value == null) {
+            return defaultValue;
+        }
+        Boolean parsed = LenientParser.parseBoolean(value);
+        if (parsed == null) {
+            recordConversionError(column);
+            return false; // Comme Boolean.parseBoolean pour une valeur inconnue
+        }
+        return parsed;
+    }
+
+    /**
+     * @return la date du champ, ou null si le champ est vide ou dans un format non reconnu
+     */
+    public LocalDateTime getDate(RecordSchema.Column column) {
+        String value = get(column);
+        if (value == null) {
+            return null;
+        }
+        LocalDateTime parsed = LenientParser.parseDate(value);
+        if (parsed == null) {
+            recordConversionError(column);
+        }
+        return parsed;
+    }
+
+    /**
+     * Compte une valeur non convertible une seule fois par ligne et par champ : une ligne relue
+     * après l'échec de son lot n'est pas comptée deux fois.
+     */
+    private void recordConversionError(RecordSchema.Column column) {
+        long bit = 1L << column.ordinal();
+        if ((conversionErrors & bit) == 0) {
+            conversionErrors |= bit;
+            schema.recordConversionError(column);
+        }
+    }
+
+    public boolean has(RecordSchema.Column column) {
+        return get(column) != null;
+    }
+
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+    public long getRowNumber() {
+        return rowNumber;
+    }
+
+    /**
+     * Cellules de la ligne, dans l'ordre des headers du fichier.
+     */
+    String[] values() {
+        return values;
+    }
+
+    /**
+     * Vue header → valeur, pour les appelants qui manipulent encore des Map.
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new HashMap<>();
+        String[] headers = schema.getHeaders();
+        for (int i = 0; i < headers.length && i < values.length; i++) {
+            if (!headers[i].isEmpty() && values[i] != null) {
+                map.put(headers[i], values[i]);
+            }
+        }
+        return map;
+    }
+}
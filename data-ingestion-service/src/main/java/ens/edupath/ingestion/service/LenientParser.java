@@ -0,0 +1,282 @@
+package ens.edupath.ingestion.service;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+
+/**
+ * Conversions de valeurs de fichiers sans exception : un échec est signalé par une valeur
+ * sentinelle (NaN, INVALID ou null). Une colonne mal remplie ne coûte donc pas une exception
+ * (et sa pile d'appels) par ligne.
+ */
+final class LenientParser {
+
+    static final long INVALID = Long.MIN_VALUE;
+
+    private static final String[] MONTHS = {
+            "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec"
+    };
+
+    private LenientParser() {
+    }
+
+    /**
+     * Entier avec signe optionnel ; "12.0" est accepté.
+     *
+     * @return la valeur, ou INVALID
+     */
+    static long parseLong(String text) {
+        int length = text.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+            negative = text.charAt(0) == '-';
+            i++;
+        }
+        if (i == length) {
+            return INVALID;
+        }
+
+        long value = 0;
+        int start = i;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if ((c == '.' || c == ',') && i > start) {
+                // Partie décimale nulle uniquement (valeur Excel formatée "12.0")
+                for (int j = i + 1; j < length; j++) {
+                    if (text.charAt(j) != '0') {
+                        return INVALID;
+                    }
+                }
+                break;
+            }
+            if (c < '0' || c > '9' || value > (Long.MAX_VALUE - (c - '0')) / 10) {
+                return INVALID;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Décimal avec "." ou "," comme séparateur et exposant optionnel.
+     *
+     * @return la valeur, ou NaN
+     */
+    static double parseDouble(String text) {
+        int length = text.length();
+        int i = 0;
+        if (length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+            i++;
+        }
+
+        int digits = 0;
+        int separator = -1;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if ((c == '.' || c == ',') && separator < 0) {
+                separator = i;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+
+        if (i < length) {
+            char c = text.charAt(i);
+            if (c != 'e' && c != 'E') {
+                return Double.NaN;
+            }
+            i++;
+            if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            for (; i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+                exponentDigits++;
+            }
+            if (exponentDigits == 0 || i < length) {
+                return Double.NaN;
+            }
+        }
+
+        // La syntaxe est validée : parseDouble ne peut plus échouer
+        return Double.parseDouble(separator >= 0 && text.charAt(separator) == ','
+                ? text.replace(',', '.')
+                : text);
+    }
+
+    /**
+     * Booléen : true/false, 1/0, yes/no, oui/non, present/absent.
+     *
+     * @return TRUE, FALSE, ou null si la valeur n'est pas reconnue
+     */
+    static Boolean parseBoolean(String text) {
+        switch (text.toLowerCase()) {
+            case "true": case "1": case "yes": case "y": case "oui": case "o": case "present": case "présent":
+                return Boolean.TRUE;
+            case "false": case "0": case "no": case "n": case "non": case "absent":
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Date reconnue parmi les formats reçus :
+     * ISO (2024-01-15, 2024-01-15T10:30[:00][.000][Z|+01:00]), dd/MM/yyyy [HH:mm[:ss]],
+     * numéro de série Excel (45306, 45306.5) et la forme texte des cellules date Excel
+     * (Mon Jan 15 00:00:00 CET 2024).
+     *
+     * @return la date, ou null
+     */
+    static LocalDateTime parseDate(String text) {
+        int length = text.length();
+        if (length == 0) {
+            return null;
+        }
+        char first = text.charAt(0);
+        if (first >= '0' && first <= '9') {
+            if (length >= 10 && text.charAt(4) == '-') {
+                return parseIso(text);
+            }
+            if (length >= 10 && text.charAt(2) == '/') {
+                return parseDayFirst(text);
+            }
+            return parseExcelSerial(text);
+        }
+        return parseDateToString(text);
+    }
+
+    private static LocalDateTime parseIso(String text) {
+        int year = digits(text, 0, 4);
+        if (text.charAt(7) != '-') {
+            return null;
+        }
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        if (text.length() == 10) {
+            return of(year, month, day, 0, 0, 0, 0);
+        }
+        char separator = text.charAt(10);
+        if (separator != 'T' && separator != ' ') {
+            return null;
+        }
+        return withTime(text, 11, year, month, day, true);
+    }
+
+    private static LocalDateTime parseDayFirst(String text) {
+        if (text.charAt(5) != '/') {
+            return null;
+        }
+        int day = digits(text, 0, 2);
+        int month = digits(text, 3, 2);
+        int year = digits(text, 6, 4);
+        if (text.length() == 10) {
+            return of(year, month, day, 0, 0, 0, 0);
+        }
+        if (text.charAt(10) != ' ') {
+            return null;
+        }
+        return withTime(text, 11, year, month, day, false);
+    }
+
+    /**
+     * Lit HH:mm[:ss[.fraction]] à partir de start. Le fuseau éventuel (ISO) est ignoré,
+     * comme avec LocalDateTime.parse(..., ISO_DATE_TIME).
+     */
+    private static LocalDateTime withTime(String text, int start, int year, int month, int day, boolean allowZone) {
+        int length = text.length();
+        if (length < start + 5 || text.charAt(start + 2) != ':') {
+            return null;
+        }
+        int hour = digits(text, start, 2);
+        int minute = digits(text, start + 3, 2);
+        int second = 0;
+        int nanos = 0;
+        int i = start + 5;
+
+        if (i < length && text.charAt(i) == ':') {
+            second = digits(text, i + 1, 2);
+            i += 3;
+            if (i < length && (text.charAt(i) == '.' || text.charAt(i) == ',')) {
+                int scale = 100_000_000;
+                for (i++; i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+                    nanos += (text.charAt(i) - '0') * scale;
+                    scale /= 10;
+                }
+            }
+        }
+
+        if (i < length) {
+            char c = text.charAt(i);
+            if (!allowZone || (c != 'Z' && c != '+' && c != '-' && c != '[')) {
+                return null;
+            }
+        }
+        return of(year, month, day, hour, minute, second, nanos);
+    }
+
+    private static LocalDateTime parseExcelSerial(String text) {
+        double serial = parseDouble(text);
+        if (Double.isNaN(serial) || !DateUtil.isValidExcelDate(serial) || serial < 1) {
+            return null;
+        }
+        return DateUtil.getLocalDateTime(serial);
+    }
+
+    /**
+     * Forme produite par java.util.Date.toString() : "EEE MMM dd HH:mm:ss zzz yyyy".
+     */
+    private static LocalDateTime parseDateToString(String text) {
+        String[] parts = text.split(" ");
+        if (parts.length != 6 || parts[1].length() != 3 || parts[3].length() != 8) {
+            return null;
+        }
+        int month = -1;
+        for (int m = 0; m < MONTHS.length; m++) {
+            if (MONTHS[m].equalsIgnoreCase(parts[1])) {
+                month = m + 1;
+            }
+        }
+        int day = parts[2].length() == 2 ? digits(parts[2], 0, 2) : -1;
+        int year = parts[5].length() == 4 ? digits(parts[5], 0, 4) : -1;
+        String time = parts[3];
+        if (time.charAt(2) != ':' || time.charAt(5) != ':') {
+            return null;
+        }
+        return of(year, month, day, digits(time, 0, 2), digits(time, 3, 2), digits(time, 6, 2), 0);
+    }
+
+    private static LocalDateTime of(int year, int month, int day, int hour, int minute, int second, int nanos) {
+        if (year < 0 || month < 1 || month > 12 || day < 1
+                || day > YearMonth.of(year, month).lengthOfMonth()
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return null;
+        }
+        return LocalDateTime.of(year, month, day, hour, minute, second, nanos);
+    }
+
+    /**
+     * @return la valeur des count chiffres à partir de start, ou -1
+     */
+    private static int digits(String text, int start, int count) {
+        if (start + count > text.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
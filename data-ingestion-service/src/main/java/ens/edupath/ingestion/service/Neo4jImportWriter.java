@@ -0,0 +1,244 @@
+package ens.edupath.ingestion.service;
+
+import com.opencsv.CSVWriter;
+import ens.edupath.ingestion.dto.BulkExportManifest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static ens.edupath.ingestion.service.RecordSchema.Column.*;
+
+/**
+ * Écrit les fichiers de nœuds et de relations au format de neo4j-admin database import.
+ * Les lignes sont interprétées comme par GraphBatchWriter (mêmes identifiants, mêmes propriétés).
+ *
+ * Étudiants et modules, peu nombreux et complétés par plusieurs fichiers, sont fusionnés en mémoire
+ * et écrits à la fermeture. Évaluations et activités sont écrites au fil de l'eau, en deux lectures
+ * des fichiers : {@link #scan} relève la dernière ligne de chaque identifiant, {@link #accept}
+ * n'écrit que celle-ci, avec ses relations. Comme avec les MERGE, une ligne répétée (feuilles
+ * cumulatives) ne crée ni nœud ni relation en double et ses dernières valeurs l'emportent ;
+ * seuls l'identifiant et le numéro de sa dernière ligne restent en mémoire.
+ */
+class Neo4jImportWriter implements AutoCloseable {
+
+    private static final String[] STUDENT_HEADER = {"studentId:ID(Student)", "username", "email", "firstName", "lastName"};
+    private static final String[] MODULE_HEADER = {"moduleId:ID(Module)", "code", "name", "description", "credits:int"};
+    private static final String[] EVALUATION_HEADER = {"evaluationId:ID(Evaluation)", "type", "title",
+            "score:double", "maxScore:double", "date:localdatetime", "status"};
+    private static final String[] ACTIVITY_HEADER = {"activityId:ID(Activity)", "type", "title",
+            "date:localdatetime", "duration:int", "present:boolean"};
+    private static final String[] RESOURCE_HEADER = {"resourceId:ID(Resource)", "title", "type", "url", "description"};
+
+    private final Path directory;
+    private final Map<String, Map<String, Object>> students = new LinkedHashMap<>();
+    private final Map<String, Map<String, Object>> modules = new LinkedHashMap<>();
+    private final Map<String, ImportFile> nodeFiles = new LinkedHashMap<>();
+    private final Map<String, ImportFile> relationshipFiles = new LinkedHashMap<>();
+    private final Map<String, Long> lastOccurrence = new HashMap<>(); // "Label:id" → numéro de la dernière ligne
+    private long scanned;
+    private long accepted;
+    private long duplicatesSkipped;
+    private boolean closed;
+
+    Neo4jImportWriter(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        nodeFiles.put("Evaluation", open("evaluations.csv", EVALUATION_HEADER));
+        nodeFiles.put("Activity", open("activities.csv", ACTIVITY_HEADER));
+        // Aucun fichier d'ingestion ne décrit de ressources : fichier vide pour que l'import déclare le label
+        nodeFiles.put("Resource", open("resources.csv", RESOURCE_HEADER));
+        relationshipFiles.put("HAS_EVALUATION", open("has_evaluation.csv", ":START_ID(Student)", ":END_ID(Evaluation)"));
+        relationshipFiles.put("EVALUATES", open("evaluates.csv", ":START_ID(Module)", ":END_ID(Evaluation)"));
+        relationshipFiles.put("PARTICIPATES_IN", open("participates_in.csv", ":START_ID(Student)", ":END_ID(Activity)"));
+        relationshipFiles.put("HAS_ACTIVITY", open("has_activity.csv", ":START_ID(Module)", ":END_ID(Activity)"));
+        relationshipFiles.put("HAS_RESOURCE", open("has_resource.csv", ":START_ID(Module)", ":END_ID(Resource)"));
+    }
+
+    /**
+     * Première lecture : numérote les lignes d'évaluation et d'activité et retient la dernière de
+     * chaque identifiant. Les fichiers sont ensuite relus dans le même ordre avec {@link #accept}.
+     */
+    void scan(String entityType, IngestionRecord record) {
+        String studentId = record.get(STUDENT_ID);
+        String moduleId = record.get(MODULE_ID);
+        if (studentId == null || moduleId == null) {
+            return; // Ignorée aussi par accept()
+        }
+        switch (entityType) {
+            case "Note":
+            case "Evaluation":
+                lastOccurrence.put("Evaluation:" + GraphProperties.evaluationId(record, studentId, moduleId,
+                        GraphProperties.evaluationProperties(record)), ++scanned);
+                break;
+            case "Presence":
+            case "Activity":
+                lastOccurrence.put("Activity:" + GraphProperties.activityId(record, studentId, moduleId,
+                        GraphProperties.activityProperties(record)), ++scanned);
+                break;
+            default:
+                break;
+        }
+    }
+
+    void accept(String entityType, IngestionRecord record) {
+        switch (entityType) {
+            case "User":
+                merge(students, record.get(STUDENT_ID, UUID.randomUUID().toString()), GraphProperties.studentProperties(record));
+                break;
+            case "Module":
+                merge(modules, record.get(MODULE_ID, UUID.randomUUID().toString()), GraphProperties.moduleProperties(record));
+                break;
+            case "Note":
+            case "Evaluation":
+                acceptEvaluation(record);
+                break;
+            case "Presence":
+            case "Activity":
+                acceptActivity(record);
+                break;
+            default:
+                throw new IllegalArgumentException("Type d'entité non supporté: " + entityType);
+        }
+    }
+
+    private void acceptEvaluation(IngestionRecord record) {
+        if (!collectOwners(record)) {
+            return;
+        }
+        Map<String, Object> properties = GraphProperties.evaluationProperties(record);
+        String evaluationId = GraphProperties.evaluationId(record, record.get(STUDENT_ID), record.get(MODULE_ID), properties);
+        if (!isLastOccurrence("Evaluation", evaluationId)) {
+            return;
+        }
+        nodeFiles.get("Evaluation").write(evaluationId, properties.get("type"), properties.get("title"),
+                properties.get("score"), properties.get("maxScore"), properties.get("date"), properties.get("status"));
+        relationshipFiles.get("HAS_EVALUATION").write(record.get(STUDENT_ID), evaluationId);
+        relationshipFiles.get("EVALUATES").write(record.get(MODULE_ID), evaluationId);
+    }
+
+    private void acceptActivity(IngestionRecord record) {
+        if (!collectOwners(record)) {
+            return;
+        }
+        Map<String, Object> properties = GraphProperties.activityProperties(record);
+        String activityId = GraphProperties.activityId(record, record.get(STUDENT_ID), record.get(MODULE_ID), properties);
+        if (!isLastOccurrence("Activity", activityId)) {
+            return;
+        }
+        nodeFiles.get("Activity").write(activityId, properties.get("type"), properties.get("title"),
+                properties.get("date"), properties.get("duration"), properties.get("present"));
+        relationshipFiles.get("PARTICIPATES_IN").write(record.get(STUDENT_ID), activityId);
+        relationshipFiles.get("HAS_ACTIVITY").write(record.get(MODULE_ID), activityId);
+    }
+
+    /**
+     * @return false si une ligne suivante porte le même identifiant : c'est elle qui sera écrite
+     */
+    private boolean isLastOccurrence(String label, String id) {
+        Long last = lastOccurrence.get(label + ":" + id);
+        accepted++;
+        if (last != null && last != accepted) {
+            duplicatesSkipped++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Enregistre l'étudiant et le module de la ligne.
+     *
+     * @return true si la ligne référence les deux, comme l'exige l'écriture transactionnelle
+     */
+    private boolean collectOwners(IngestionRecord record) {
+        String studentId = record.get(STUDENT_ID);
+        String moduleId = record.get(MODULE_ID);
+        if (moduleId != null) {
+            merge(modules, moduleId, GraphProperties.moduleProperties(record));
+        }
+        if (studentId != null) {
+            merge(students, studentId, GraphProperties.studentProperties(record));
+        }
+        return studentId != null && moduleId != null;
+    }
+
+    private void merge(Map<String, Map<String, Object>> nodes, String id, Map<String, Object> properties) {
+        nodes.computeIfAbsent(id, key -> new HashMap<>()).putAll(properties);
+    }
+
+    /**
+     * Écrit étudiants et modules, ferme tous les fichiers et complète le manifeste.
+     */
+    void finish(BulkExportManifest manifest) throws IOException {
+        ImportFile studentFile = open("students.csv", STUDENT_HEADER);
+        students.forEach((id, p) -> studentFile.write(id, p.get("username"), p.get("email"), p.get("firstName"), p.get("lastName")));
+        ImportFile moduleFile = open("modules.csv", MODULE_HEADER);
+        modules.forEach((id, p) -> moduleFile.write(id, p.get("code"), p.get("name"), p.get("description"),
+                p.getOrDefault("credits", 0)));
+
+        Map<String, ImportFile> allNodes = new LinkedHashMap<>();
+        allNodes.put("Student", studentFile);
+        allNodes.put("Module", moduleFile);
+        allNodes.putAll(nodeFiles);
+        nodeFiles.clear();
+        nodeFiles.putAll(allNodes);
+        close();
+
+        StringBuilder command = new StringBuilder("neo4j-admin database import full neo4j --overwrite-destination");
+        nodeFiles.forEach((label, file) -> {
+            manifest.getNodes().put(label, new BulkExportManifest.ImportFile(file.name, file.count));
+            command.append(" --nodes=").append(label).append('=').append(file.name);
+        });
+        relationshipFiles.forEach((type, file) -> {
+            manifest.getRelationships().put(type, new BulkExportManifest.ImportFile(file.name, file.count));
+            command.append(" --relationships=").append(type).append('=').append(file.name);
+        });
+        manifest.setDuplicateNodesSkipped(duplicatesSkipped);
+        manifest.setImportCommand(command.toString());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (ImportFile file : nodeFiles.values()) {
+            file.writer.close();
+        }
+        for (ImportFile file : relationshipFiles.values()) {
+            file.writer.close();
+        }
+    }
+
+    private ImportFile open(String name, String... header) throws IOException {
+        ImportFile file = new ImportFile(name, new CSVWriter(Files.newBufferedWriter(directory.resolve(name), StandardCharsets.UTF_8)));
+        file.writer.writeNext(header, false);
+        return file;
+    }
+
+    private static final class ImportFile {
+        private final String name;
+        private final CSVWriter writer;
+        private long count;
+
+        private ImportFile(String name, CSVWriter writer) {
+            this.name = name;
+            this.writer = writer;
+        }
+
+        private void write(Object... values) {
+            String[] line = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                line[i] = values[i] != null ? values[i].toString() : null;
+            }
+            // Guillemets seulement si nécessaire : un champ typé vide reste une valeur absente pour l'import
+            writer.writeNext(line, false);
+            count++;
+        }
+    }
+}
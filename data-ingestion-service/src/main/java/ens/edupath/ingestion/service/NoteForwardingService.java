@@ -0,0 +1,92 @@
+package ens.edupath.ingestion.service;
+
+import ens.edupath.ingestion.client.NoteServiceClient;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transmet à note-service les évaluations écrites dans le graphe, par lots de batch-size notes
+ * (POST /notes/bulk) : un import de 50 000 notes représente quelques dizaines d'appels.
+ * L'externalId de chaque note est l'identifiant du nœud Evaluation : un fichier renvoyé met
+ * à jour les mêmes notes.
+ */
+@Service
+public class NoteForwardingService {
+
+    private final NoteServiceClient noteServiceClient;
+    private final TaskExecutor executor;
+
+    @Value("${processing.notes.enabled:false}")
+    private boolean enabled;
+
+    @Value("${processing.notes.batch-size:2000}")
+    private int batchSize;
+
+    @Value("${processing.forwarding.max-in-flight:2}")
+    private int maxInFlight;
+
+    public NoteForwardingService(NoteServiceClient noteServiceClient,
+                                 @Qualifier("ingestionForwardingExecutor") TaskExecutor executor) {
+        this.noteServiceClient = noteServiceClient;
+        this.executor = executor;
+    }
+
+    /**
+     * @param label désignation de l'ingestion dans les messages console
+     * @return un transmetteur sans effet si la transmission est désactivée ou si le type n'est pas une note
+     */
+    BatchForwarder open(String entityType, String label) {
+        if (!enabled || !("Note".equals(entityType) || "Evaluation".equals(entityType))) {
+            return BatchForwarder.disabled();
+        }
+        return new BatchForwarder(label, "note-service", batchSize, maxInFlight, executor,
+                record -> toNote(entityType, record), this::send);
+    }
+
+    private long send(List<Map<String, Object>> notes) {
+        Map<String, Object> body = noteServiceClient.createNotes(Map.of("notes", notes)).getBody();
+        return body != null && body.get("failed") instanceof Number n ? n.longValue() : 0;
+    }
+
+    /**
+     * Note au format NoteRequest de note-service, ou null si la ligne ne permet pas d'en créer une
+     * (module non numérique, note ou date absente). Les valeurs sont relues sans compter de nouvelles
+     * erreurs de conversion : l'écriture dans le graphe les a déjà comptées.
+     */
+    static Map<String, Object> toNote(String entityType, IngestionRecord record) {
+        String studentId = record.get(RecordSchema.Column.STUDENT_ID);
+        String moduleId = record.get(RecordSchema.Column.MODULE_ID);
+        String score = record.get(RecordSchema.Column.SCORE);
+        String date = record.get(RecordSchema.Column.DATE);
+        if (studentId == null || moduleId == null || score == null || date == null) {
+            return null;
+        }
+
+        long module = LenientParser.parseLong(moduleId);
+        double value = LenientParser.parseDouble(score);
+        String maxScore = record.get(RecordSchema.Column.MAX_SCORE);
+        double max = maxScore != null ? LenientParser.parseDouble(maxScore) : 100.0;
+        LocalDateTime evaluationDate = LenientParser.parseDate(date);
+        if (module == LenientParser.INVALID || Double.isNaN(value) || Double.isNaN(max) || evaluationDate == null) {
+            return null;
+        }
+
+        Map<String, Object> note = new HashMap<>();
+        note.put("externalId", GraphProperties.nodeId(entityType, record));
+        note.put("studentId", studentId);
+        note.put("moduleId", module);
+        note.put("evaluationType", record.get(RecordSchema.Column.TYPE, "Exam"));
+        note.put("evaluationTitle", record.get(RecordSchema.Column.TITLE, ""));
+        note.put("score", value);
+        note.put("maxScore", max);
+        note.put("evaluationDate", evaluationDate.toString());
+        return note;
+    }
+}
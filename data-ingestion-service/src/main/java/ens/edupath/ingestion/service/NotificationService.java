@@ -35,6 +35,7 @@ public class NotificationService {
             message.put("totalRecords", log.getTotalRecords());
             message.put("successfulRecords", log.getSuccessfulRecords());
             message.put("failedRecords", log.getFailedRecords());
+            message.put("forwardFailedRecords", log.getForwardFailedRecords());
             message.put("timestamp", log.getCreatedAt());
 
             rabbitTemplate.convertAndSend(exchange, routingKey, message);
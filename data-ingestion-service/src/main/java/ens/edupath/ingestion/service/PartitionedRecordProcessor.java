@@ -0,0 +1,179 @@
+package ens.edupath.ingestion.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Répartit les enregistrements d'une ingestion sur plusieurs voies selon le hash de student_id.
+ * Chaque voie traite ses lots dans l'ordre de lecture sur son propre thread : les lignes d'un
+ * même étudiant restent ordonnées et deux voies n'écrivent jamais le même nœud Student.
+ */
+class PartitionedRecordProcessor implements AutoCloseable {
+
+    private static final Runnable END_OF_LANE = () -> { };
+    private static final AtomicInteger RUN_SEQUENCE = new AtomicInteger();
+
+    private final Lane[] lanes;
+    private final int batchSize;
+    private final Consumer<List<IngestionRecord>> batchHandler;
+    private final ExecutorService executor;
+
+    PartitionedRecordProcessor(int laneCount, int batchSize, int queueCapacity,
+                               Consumer<List<IngestionRecord>> batchHandler) {
+        this.batchSize = batchSize;
+        this.batchHandler = batchHandler;
+        this.lanes = new Lane[Math.max(1, laneCount)];
+
+        int run = RUN_SEQUENCE.incrementAndGet();
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(lanes.length, runnable -> {
+            Thread thread = new Thread(runnable, "ingestion-lane-" + run + "-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(Math.max(1, queueCapacity));
+            lanes[i].future = executor.submit(lanes[i]);
+        }
+    }
+
+    /**
+     * Ajoute l'enregistrement au lot de sa voie ; bloque si la voie a trop de lots en attente.
+     */
+    void accept(IngestionRecord record) {
+        Lane lane = lanes[Math.floorMod(partitionKey(record).hashCode(), lanes.length)];
+        lane.buffer.add(record);
+        if (lane.buffer.size() >= batchSize) {
+            lane.flushBuffer();
+        }
+    }
+
+    /**
+     * Envoie les lots en cours puis attend que chaque voie ait traité tout ce qu'elle a reçu.
+     * Au retour, toutes les lignes acceptées jusque-là sont écrites (ou comptées en échec).
+     */
+    void awaitIdle() {
+        CountDownLatch idle = new CountDownLatch(lanes.length);
+        for (Lane lane : lanes) {
+            lane.flushBuffer();
+            lane.enqueue(idle::countDown);
+        }
+        try {
+            while (!idle.await(1, TimeUnit.SECONDS)) {
+                for (Lane lane : lanes) {
+                    lane.checkAlive();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Traitement parallèle interrompu", e);
+        }
+    }
+
+    /**
+     * Envoie les derniers lots puis attend que toutes les voies aient terminé.
+     */
+    void finish() {
+        try {
+            for (Lane lane : lanes) {
+                lane.flushBuffer();
+                lane.enqueue(END_OF_LANE);
+            }
+            for (Lane lane : lanes) {
+                lane.future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Traitement parallèle interrompu", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Erreur dans une voie de traitement: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Arrête les voies, y compris si la lecture du fichier a échoué avant finish().
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private Object partitionKey(IngestionRecord record) {
+        String key = record.get(RecordSchema.Column.STUDENT_ID);
+        if (key == null) {
+            key = record.get(RecordSchema.Column.MODULE_ID);
+        }
+        return key != null ? key : record;
+    }
+
+    private final class Lane implements Runnable {
+        private final BlockingQueue<Runnable> queue;
+        private List<IngestionRecord> buffer = new ArrayList<>(batchSize);
+        private Future<?> future;
+
+        private Lane(int queueCapacity) {
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                while ((task = queue.take()) != END_OF_LANE) {
+                    task.run();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void flushBuffer() {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            List<IngestionRecord> batch = buffer;
+            buffer = new ArrayList<>(batchSize);
+            enqueue(() -> batchHandler.accept(batch));
+        }
+
+        private void enqueue(Runnable task) {
+            try {
+                // Ne pas rester bloqué indéfiniment si la voie s'est arrêtée sur une erreur
+                while (!queue.offer(task, 1, TimeUnit.SECONDS)) {
+                    checkAlive();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Traitement parallèle interrompu", e);
+            }
+        }
+
+        private void checkAlive() {
+            if (!future.isDone()) {
+                return;
+            }
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Traitement parallèle interrompu", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Erreur dans une voie de traitement: " + e.getCause().getMessage(), e.getCause());
+            }
+            throw new IllegalStateException("Voie de traitement arrêtée");
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ens.edupath.ingestion.service;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Schéma de colonnes compilé une fois par fichier : pour chaque champ logique, les positions
+ * des headers qui le fournissent, dans l'ordre de priorité des alias ("first_name" puis "firstname"...).
+ * Les lignes sont ensuite lues par index, sans Map ni recherche d'alias par ligne.
+ * Le schéma compte aussi, par champ, les valeurs du fichier qui n'ont pas pu être converties.
+ */
+public final class RecordSchema {
+
+    public enum Column {
+        STUDENT_ID,
+        MODULE_ID,
+        EVALUATION_ID,
+        ACTIVITY_ID,
+        USERNAME,
+        EMAIL,
+        FIRST_NAME,
+        LAST_NAME,
+        CODE,
+        NAME,
+        DESCRIPTION,
+        CREDITS,
+        TYPE,
+        TITLE,
+        SCORE,
+        MAX_SCORE,
+        DATE,
+        STATUS,
+        DURATION,
+        PRESENT
+    }
+
+    private static final int[] NONE = new int[0];
+
+    private final String entityType;
+    private final String[] headers;
+    private final int[][] positions;
+    private final LongAdder[] conversionErrors;
+
+    private RecordSchema(String entityType, String[] headers, int[][] positions) {
+        this.entityType = entityType;
+        this.headers = headers;
+        this.positions = positions;
+        this.conversionErrors = new LongAdder[Column.values().length];
+        for (int i = 0; i < conversionErrors.length; i++) {
+            conversionErrors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Résout les alias de chaque champ sur les headers normalisés d'un fichier.
+     */
+    public static RecordSchema compile(String entityType, String[] headers) {
+        int[][] positions = new int[Column.values().length][];
+        for (Column column : Column.values()) {
+            List<Integer> found = new ArrayList<>();
+            for (String alias : aliases(entityType).get(column)) {
+                // Header répété : la dernière colonne non vide l'emporte, comme avec Map.put
+                for (int i = headers.length - 1; i >= 0; i--) {
+                    if (alias.equals(headers[i])) {
+                        found.add(i);
+                    }
+                }
+            }
+            positions[column.ordinal()] = found.isEmpty()
+                    ? NONE
+                    : found.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return new RecordSchema(entityType, headers, positions);
+    }
+
+    /**
+     * Normalise un header de fichier (trim, minuscules, espaces remplacés par "_").
+     */
+    public static String normalizeHeader(String header) {
+        return header.trim()
+                .toLowerCase()
+                .replaceAll("\\s+", "_")
+                .replaceAll("[^a-z0-9_]", "");
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public String[] getHeaders() {
+        return headers;
+    }
+
+    public int width() {
+        return headers.length;
+    }
+
+    public boolean has(Column column) {
+        return positions[column.ordinal()].length > 0;
+    }
+
+    int[] positions(Column column) {
+        return positions[column.ordinal()];
+    }
+
+    void recordConversionError(Column column) {
+        conversionErrors[column.ordinal()].increment();
+    }
+
+    /**
+     * Nombre de valeurs non convertibles par champ ("score", "max_score"...), champs sans erreur exclus.
+     */
+    public Map<String, Long> getConversionErrors() {
+        Map<String, Long> errors = new TreeMap<>();
+        for (Column column : Column.values()) {
+            long count = conversionErrors[column.ordinal()].sum();
+            if (count > 0) {
+                errors.put(column.name().toLowerCase(), count);
+            }
+        }
+        return errors;
+    }
+
+    private static Map<Column, List<String>> aliases(String entityType) {
+        String group = entityType != null ? entityType : "";
+        Map<Column, List<String>> aliases = new EnumMap<>(Column.class);
+
+        // "id" désigne l'entité principale du fichier
+        aliases.put(Column.STUDENT_ID, group.equals("User") ? List.of("student_id", "id") : List.of("student_id"));
+        aliases.put(Column.MODULE_ID, group.equals("Module") ? List.of("module_id", "id") : List.of("module_id"));
+        aliases.put(Column.EVALUATION_ID, List.of("evaluation_id", "id"));
+        aliases.put(Column.ACTIVITY_ID, List.of("activity_id", "id"));
+
+        aliases.put(Column.USERNAME, List.of("username"));
+        aliases.put(Column.EMAIL, List.of("email"));
+        aliases.put(Column.FIRST_NAME, List.of("first_name", "firstname"));
+        aliases.put(Column.LAST_NAME, List.of("last_name", "lastname"));
+
+        aliases.put(Column.CODE, List.of("code"));
+        aliases.put(Column.NAME, List.of("name", "module_name"));
+        aliases.put(Column.DESCRIPTION, List.of("description"));
+        aliases.put(Column.CREDITS, List.of("credits"));
+
+        boolean activity = group.equals("Presence") || group.equals("Activity");
+        String prefix = activity ? "activity_" : "evaluation_";
+        aliases.put(Column.TYPE, List.of("type", prefix + "type"));
+        aliases.put(Column.TITLE, List.of("title", prefix + "title"));
+        aliases.put(Column.DATE, List.of("date", prefix + "date"));
+
+        aliases.put(Column.SCORE, List.of("score"));
+        aliases.put(Column.MAX_SCORE, List.of("max_score", "maxscore"));
+        aliases.put(Column.STATUS, List.of("status"));
+        aliases.put(Column.DURATION, List.of("duration"));
+        aliases.put(Column.PRESENT, List.of("present", "presence"));
+        return aliases;
+    }
+}
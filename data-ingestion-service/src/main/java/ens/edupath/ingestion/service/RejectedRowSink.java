@@ -0,0 +1,288 @@
+package ens.edupath.ingestion.service;
+
+import com.opencsv.CSVWriter;
+import ens.edupath.ingestion.model.jpa.IngestionLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Écrit les lignes rejetées d'une ingestion, avec leur motif, dans un CSV compressé propre au log.
+ * L'écriture et les traces console se font sur un thread dédié alimenté par une file bornée :
+ * si la file est pleine, la ligne est comptée comme perdue plutôt que de ralentir l'ingestion.
+ */
+@Service
+public class RejectedRowSink {
+
+    public enum Reason {
+        INVALID_DATA,      // Valeur ou type d'entité refusé
+        GRAPH_WRITE_ERROR, // Écriture Neo4j en échec
+        UNEXPECTED_ERROR
+    }
+
+    @Value("${file.upload.rejects-dir:./temp/rejects}")
+    private String rejectsDir;
+
+    @Value("${processing.rejects.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${processing.rejects.log-sample:20}")
+    private int logSample;
+
+    @Value("${processing.rejects.log-interval:PT10S}")
+    private Duration logInterval;
+
+    /**
+     * Prépare l'écriture des rejets du log. Le fichier n'est créé qu'au premier rejet ;
+     * une reprise ajoute ses rejets au fichier existant.
+     */
+    public Writer open(IngestionLog log) {
+        Path path = log.getRejectsFilePath() != null
+                ? Paths.get(log.getRejectsFilePath())
+                : Paths.get(rejectsDir).resolve("ingestion-" + log.getId() + "-rejects.csv.gz");
+        return new Writer(log.getId(), path);
+    }
+
+    /**
+     * Rejets d'un morceau de fichier distribué : un fichier par morceau, pour que plusieurs
+     * instances n'écrivent jamais le même fichier. Une nouvelle tentative repart d'un fichier vide.
+     */
+    public Writer open(IngestionLog log, int chunkIndex) throws IOException {
+        Path path = Paths.get(rejectsDir).resolve("ingestion-" + log.getId() + "-chunk-" + chunkIndex + "-rejects.csv.gz");
+        Files.deleteIfExists(path);
+        return new Writer(log.getId(), path);
+    }
+
+    /**
+     * Réunit les rejets des morceaux d'un fichier distribué dans le fichier du log, dans l'ordre
+     * des morceaux, puis supprime les fichiers des morceaux. Seul le premier garde sa ligne de headers.
+     *
+     * @return le fichier du log, ou null si aucun morceau n'a de rejets
+     */
+    public Path merge(IngestionLog log, List<Path> parts) throws IOException {
+        Path target = Paths.get(rejectsDir).resolve("ingestion-" + log.getId() + "-rejects.csv.gz");
+        boolean first = true;
+        for (Path part : parts) {
+            if (part == null || !Files.exists(part)) {
+                continue;
+            }
+            Files.createDirectories(target.getParent());
+            if (first) {
+                Files.copy(part, target, StandardCopyOption.REPLACE_EXISTING);
+                first = false;
+            } else {
+                // Nouveau membre gzip sans la ligne de headers (les noms de colonnes ne contiennent pas de saut de ligne)
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(part));
+                     OutputStream out = new GZIPOutputStream(Files.newOutputStream(target, StandardOpenOption.APPEND))) {
+                    int b;
+                    while ((b = in.read()) != -1 && b != '\n') {
+                        // ligne de headers ignorée
+                    }
+                    in.transferTo(out);
+                }
+            }
+            Files.delete(part);
+        }
+        return first ? null : target;
+    }
+
+    public static Reason classify(Exception e) {
+        if (e instanceof IllegalArgumentException || e instanceof IllegalStateException) {
+            return Reason.INVALID_DATA;
+        }
+        if (e instanceof org.springframework.dao.DataAccessException
+                || e.getClass().getName().startsWith("org.neo4j")) {
+            return Reason.GRAPH_WRITE_ERROR;
+        }
+        return Reason.UNEXPECTED_ERROR;
+    }
+
+    /**
+     * Erreur passagère (connexion perdue, base indisponible, délai dépassé) : réessayer plus tard
+     * peut réussir. Une violation de contrainte ou une donnée invalide n'en est pas une.
+     */
+    public static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof org.springframework.dao.TransientDataAccessException
+                    || cause instanceof org.springframework.dao.RecoverableDataAccessException
+                    || cause instanceof org.springframework.dao.DataAccessResourceFailureException) {
+                return true;
+            }
+            String name = cause.getClass().getName();
+            if (name.equals("org.neo4j.driver.exceptions.ServiceUnavailableException")
+                    || name.equals("org.neo4j.driver.exceptions.SessionExpiredException")
+                    || name.equals("org.neo4j.driver.exceptions.TransientException")) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    public final class Writer implements AutoCloseable {
+        private final Long logId;
+        private final Path path;
+        private final BlockingQueue<Rejection> queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        private final LongAdder dropped = new LongAdder();
+        private final Thread thread;
+        private volatile boolean closed;
+        private long written;
+        private IOException failure;
+
+        private Writer(Long logId, Path path) {
+            this.logId = logId;
+            this.path = path;
+            this.thread = new Thread(this::drain, "ingestion-rejects-" + logId);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        /**
+         * Enregistre un rejet sans jamais bloquer l'appelant.
+         */
+        public void reject(IngestionRecord record, Reason reason, String message) {
+            if (!queue.offer(new Rejection(record, reason, message))) {
+                dropped.increment();
+            }
+        }
+
+        /**
+         * Rejets perdus parce que la file était pleine ; définitif après {@link #close()}.
+         */
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        public boolean hasRejects() {
+            return written > 0;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        private void drain() {
+            long nextSummaryAt = System.nanoTime() + logInterval.toNanos();
+            long sinceSummary = 0;
+            CSVWriter csv = null;
+
+            try {
+                while (!closed || !queue.isEmpty()) {
+                    Rejection rejection = queue.poll(200, TimeUnit.MILLISECONDS);
+                    if (rejection != null) {
+                        if (csv == null) {
+                            csv = openFile(rejection.record);
+                        }
+                        csv.writeNext(row(rejection));
+                        written++;
+
+                        if (written <= logSample) {
+                            System.err.println("Ingestion " + logId + ", ligne " + rejection.record.getRowNumber()
+                                    + " rejetée (" + rejection.reason + "): " + rejection.message);
+                        } else {
+                            sinceSummary++;
+                        }
+                    }
+
+                    // Au-delà de l'échantillon : une ligne de synthèse par intervalle
+                    if (sinceSummary > 0 && System.nanoTime() >= nextSummaryAt) {
+                        System.err.println("Ingestion " + logId + ": " + sinceSummary + " lignes rejetées de plus ("
+                                + written + " au total, détail dans " + path + ")");
+                        sinceSummary = 0;
+                        nextSummaryAt = System.nanoTime() + logInterval.toNanos();
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (csv != null) {
+                    try {
+                        csv.close();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+
+        private CSVWriter openFile(IngestionRecord first) throws IOException {
+            Files.createDirectories(path.getParent());
+            boolean exists = Files.exists(path);
+            // Chaque ouverture ajoute un membre gzip : les membres concaténés restent lisibles
+            CSVWriter csv = new CSVWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)), StandardCharsets.UTF_8));
+            if (!exists) {
+                csv.writeNext(header(first));
+            }
+            return csv;
+        }
+
+        private String[] header(IngestionRecord record) {
+            String[] headers = record.getSchema().getHeaders();
+            String[] line = new String[headers.length + 3];
+            line[0] = "row_number";
+            line[1] = "reason_code";
+            line[2] = "reason";
+            System.arraycopy(headers, 0, line, 3, headers.length);
+            return line;
+        }
+
+        private String[] row(Rejection rejection) {
+            String[] values = rejection.record.values();
+            String[] line = new String[values.length + 3];
+            line[0] = String.valueOf(rejection.record.getRowNumber());
+            line[1] = rejection.reason.name();
+            line[2] = rejection.message;
+            System.arraycopy(values, 0, line, 3, values.length);
+            return line;
+        }
+
+        /**
+         * Attend l'écriture des rejets en file puis ferme le fichier.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (written > logSample) {
+                System.err.println("Ingestion " + logId + ": " + written + " lignes rejetées écrites dans " + path);
+            }
+            if (dropped.sum() > 0) {
+                System.err.println("Ingestion " + logId + ": " + dropped.sum()
+                        + " lignes rejetées non enregistrées (file des rejets pleine)");
+            }
+            if (failure != null) {
+                System.err.println("Impossible d'écrire le fichier de rejets " + path + ": " + failure.getMessage());
+            }
+        }
+    }
+
+    private record Rejection(IngestionRecord record, Reason reason, String message) {
+    }
+}
@@ -0,0 +1,77 @@
+package ens.edupath.ingestion.service;
+
+import ens.edupath.ingestion.client.AuthServiceClient;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Crée dans auth-service les comptes des étudiants écrits dans le graphe, par lots de batch-size
+ * utilisateurs (POST /users/bulk) : une promotion de 5 000 étudiants représente quelques appels.
+ * Les comptes déjà existants sont ignorés par auth-service, un fichier renvoyé ne crée donc rien.
+ */
+@Service
+public class UserForwardingService {
+
+    private final AuthServiceClient authServiceClient;
+    private final TaskExecutor executor;
+
+    @Value("${processing.users.enabled:false}")
+    private boolean enabled;
+
+    @Value("${processing.users.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${processing.users.send-welcome-email:true}")
+    private boolean sendWelcomeEmail;
+
+    @Value("${processing.forwarding.max-in-flight:2}")
+    private int maxInFlight;
+
+    public UserForwardingService(AuthServiceClient authServiceClient,
+                                 @Qualifier("ingestionForwardingExecutor") TaskExecutor executor) {
+        this.authServiceClient = authServiceClient;
+        this.executor = executor;
+    }
+
+    /**
+     * @param label désignation de l'ingestion dans les messages console
+     * @return un transmetteur sans effet si la création de comptes est désactivée
+     */
+    BatchForwarder open(String label) {
+        if (!enabled) {
+            return BatchForwarder.disabled();
+        }
+        return new BatchForwarder(label, "auth-service", batchSize, maxInFlight, executor,
+                UserForwardingService::toUser, this::send);
+    }
+
+    private long send(List<Map<String, Object>> users) {
+        Map<String, Object> body = authServiceClient.createUsers(
+                Map.of("users", users, "sendWelcomeEmail", sendWelcomeEmail)).getBody();
+        return body != null && body.get("failed") instanceof Number n ? n.longValue() : 0;
+    }
+
+    /**
+     * Utilisateur au format CreateUserRequest d'auth-service, sans mot de passe (auth-service en
+     * génère un temporaire), ou null sans email. Le nom d'utilisateur est à défaut le student_id.
+     */
+    static Map<String, Object> toUser(IngestionRecord record) {
+        String username = record.get(RecordSchema.Column.USERNAME, record.get(RecordSchema.Column.STUDENT_ID));
+        String email = record.get(RecordSchema.Column.EMAIL);
+        if (username == null || email == null) {
+            return null;
+        }
+
+        Map<String, Object> user = new HashMap<>();
+        user.put("username", username);
+        user.put("email", email);
+        user.put("roles", List.of("ROLE_STUDENT"));
+        return user;
+    }
+}
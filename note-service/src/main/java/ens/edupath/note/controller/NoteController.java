@@ -49,6 +49,16 @@ public class NoteController {
         }
     }
 
+    // Import en masse (data-ingestion-service) : quelques milliers de notes par appel
+    @PostMapping("/notes/bulk")
+    public ResponseEntity<BulkNoteResponse> createNotes(@Valid @RequestBody BulkNoteRequest request) {
+        try {
+            return ResponseEntity.ok(noteService.createNotes(request.getNotes()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @PutMapping("/notes/{id}")
     public ResponseEntity<NoteResponse> updateNote(
             @PathVariable Long id,
@@ -0,0 +1,13 @@
+package ens.edupath.note.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BulkNoteRequest {
+    // Chaque note est validée individuellement : une note invalide n'empêche pas l'enregistrement des autres
+    @NotEmpty(message = "Au moins une note est requise")
+    private List<NoteRequest> notes;
+}
@@ -0,0 +1,28 @@
+package ens.edupath.note.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkNoteResponse {
+    private int received;
+    private int created;
+    private int updated; // Notes existantes avec le même externalId
+    private int failed;
+    private List<NoteError> errors = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class NoteError {
+        private int index; // Position dans la requête
+        private String externalId;
+        private String message;
+    }
+}
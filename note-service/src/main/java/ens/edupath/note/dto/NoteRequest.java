@@ -2,6 +2,7 @@ package ens.edupath.note.dto;
 
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
 import lombok.Data;
 
 import java.time.LocalDateTime;
@@ -32,6 +33,9 @@ public class NoteRequest {
 
     @NotNull(message = "La date d'évaluation est requise")
     private LocalDateTime evaluationDate;
+
+    @Size(max = 64, message = "L'identifiant externe ne doit pas dépasser 64 caractères")
+    private String externalId; // Optionnel : identifiant stable fourni par l'ingestion
 }
 
 
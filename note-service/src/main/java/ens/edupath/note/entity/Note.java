@@ -54,6 +54,10 @@ public class Note {
     @Column(nullable = false)
     private LocalDateTime evaluationDate;
 
+    // Identifiant de l'évaluation dans data-ingestion-service : un renvoi met à jour la note au lieu de la dupliquer
+    @Column(unique = true, length = 64)
+    private String externalId;
+
     @CreatedDate
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
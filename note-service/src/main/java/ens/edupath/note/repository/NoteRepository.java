@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -13,6 +14,7 @@ public interface NoteRepository extends JpaRepository<Note, Long> {
     List<Note> findByStudentId(String studentId);
     List<Note> findByModuleId(Long moduleId);
     List<Note> findByStudentIdAndModuleId(String studentId, Long moduleId);
+    List<Note> findByExternalIdIn(Collection<String> externalIds);
     
     @Query("SELECT AVG(n.score / n.maxScore * 100) FROM Note n WHERE n.studentId = :studentId AND n.moduleId = :moduleId")
     Double calculateAveragePercentage(@Param("studentId") String studentId, @Param("moduleId") Long moduleId);
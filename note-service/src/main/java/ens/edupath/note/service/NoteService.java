@@ -1,16 +1,25 @@
 package ens.edupath.note.service;
 
 import ens.edupath.note.client.ModuleServiceClient;
+import ens.edupath.note.dto.BulkNoteResponse;
 import ens.edupath.note.dto.NoteRequest;
 import ens.edupath.note.dto.NoteResponse;
 import ens.edupath.note.entity.Note;
 import ens.edupath.note.repository.NoteRepository;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
@@ -22,15 +31,21 @@ public class NoteService {
     private final AlertService alertService;
     private final ModuleServiceClient moduleServiceClient;
 
+    private final Validator validator;
+
     @Value("${kpi.auto-calculate:true}")
     private boolean autoCalculateKPI;
 
+    @Value("${notes.bulk.max-size:5000}")
+    private int maxBulkSize;
+
     public NoteService(NoteRepository noteRepository, KPIService kpiService, AlertService alertService,
-                      ModuleServiceClient moduleServiceClient) {
+                      ModuleServiceClient moduleServiceClient, Validator validator) {
         this.noteRepository = noteRepository;
         this.kpiService = kpiService;
         this.alertService = alertService;
         this.moduleServiceClient = moduleServiceClient;
+        this.validator = validator;
     }
 
     public NoteResponse createNote(NoteRequest request) {
@@ -67,6 +82,93 @@ public class NoteService {
         return toResponse(note);
     }
 
+    /**
+     * Enregistre un lot de notes dans une seule transaction. Les informations de module sont lues
+     * une fois par module, et les KPIs et alertes recalculés une fois par couple étudiant/module
+     * au lieu d'une fois par note. Une note dont l'externalId existe déjà est mise à jour.
+     * Les notes invalides sont signalées sans bloquer les autres.
+     */
+    public BulkNoteResponse createNotes(List<NoteRequest> requests) {
+        if (requests.size() > maxBulkSize) {
+            throw new IllegalArgumentException("Trop de notes dans la requête (" + requests.size()
+                    + ", maximum " + maxBulkSize + ")");
+        }
+
+        BulkNoteResponse response = new BulkNoteResponse();
+        response.setReceived(requests.size());
+
+        Set<String> externalIds = requests.stream()
+                .map(NoteRequest::getExternalId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<String, Note> existing = new HashMap<>();
+        if (!externalIds.isEmpty()) {
+            noteRepository.findByExternalIdIn(externalIds).forEach(note -> existing.put(note.getExternalId(), note));
+        }
+
+        Map<Long, Map<String, Object>> modules = new HashMap<>();
+        Map<Long, String> moduleErrors = new HashMap<>();
+        // Par identité : Note est un @Data, deux notes identiques sans id seraient égales
+        Set<Note> toSave = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<StudentModule> touched = new LinkedHashSet<>();
+
+        for (int i = 0; i < requests.size(); i++) {
+            NoteRequest request = requests.get(i);
+            Set<ConstraintViolation<NoteRequest>> violations = validator.validate(request);
+            if (!violations.isEmpty()) {
+                response.getErrors().add(new BulkNoteResponse.NoteError(i, request.getExternalId(),
+                        violations.stream().map(ConstraintViolation::getMessage).sorted().collect(Collectors.joining("; "))));
+                continue;
+            }
+
+            Map<String, Object> moduleInfo = modules.get(request.getModuleId());
+            if (moduleInfo == null && !moduleErrors.containsKey(request.getModuleId())) {
+                try {
+                    moduleInfo = moduleServiceClient.getModuleById(request.getModuleId());
+                    modules.put(request.getModuleId(), moduleInfo);
+                } catch (RuntimeException e) {
+                    moduleErrors.put(request.getModuleId(), "Module introuvable: " + request.getModuleId());
+                }
+            }
+            if (moduleInfo == null) {
+                response.getErrors().add(new BulkNoteResponse.NoteError(i, request.getExternalId(),
+                        moduleErrors.get(request.getModuleId())));
+                continue;
+            }
+
+            Note note = request.getExternalId() != null ? existing.get(request.getExternalId()) : null;
+            if (note == null) {
+                note = new Note();
+                note.setExternalId(request.getExternalId());
+                if (request.getExternalId() != null) {
+                    existing.put(request.getExternalId(), note);
+                }
+                response.setCreated(response.getCreated() + 1);
+            } else {
+                if (note.getId() != null) {
+                    // Le KPI de l'ancien couple change aussi si la note change d'étudiant ou de module
+                    touched.add(new StudentModule(note.getStudentId(), note.getModuleId()));
+                }
+                response.setUpdated(response.getUpdated() + 1);
+            }
+            fill(note, request, moduleInfo);
+            toSave.add(note);
+            touched.add(new StudentModule(request.getStudentId(), request.getModuleId()));
+        }
+
+        noteRepository.saveAll(toSave);
+
+        if (autoCalculateKPI) {
+            for (StudentModule pair : touched) {
+                kpiService.calculateAndUpdateKPI(pair.studentId(), pair.moduleId());
+                alertService.checkAndCreateAlerts(pair.studentId(), pair.moduleId());
+            }
+        }
+
+        response.setFailed(response.getErrors().size());
+        return response;
+    }
+
     public NoteResponse updateNote(Long id, NoteRequest request) {
         Note note = noteRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Note non trouvée avec l'ID: " + id));
@@ -138,6 +240,23 @@ public class NoteService {
                 .collect(Collectors.toList());
     }
 
+    private void fill(Note note, NoteRequest request, Map<String, Object> moduleInfo) {
+        note.setStudentId(request.getStudentId());
+        note.setStudentUsername(request.getStudentId()); // Par défaut, utiliser studentId
+        note.setModuleId(request.getModuleId());
+        note.setModuleCode((String) moduleInfo.get("code"));
+        note.setModuleName((String) moduleInfo.get("name"));
+        note.setEvaluationType(request.getEvaluationType());
+        note.setEvaluationTitle(request.getEvaluationTitle());
+        note.setScore(request.getScore());
+        note.setMaxScore(request.getMaxScore());
+        note.setComments(request.getComments());
+        note.setEvaluationDate(request.getEvaluationDate());
+    }
+
+    private record StudentModule(String studentId, Long moduleId) {
+    }
+
     private NoteResponse toResponse(Note note) {
         NoteResponse response = new NoteResponse();
         response.setId(note.getId());